@@ -60,14 +60,27 @@ public class RoutingConfig {
     // server threads
     private final int serverThreads;
 
+    // routing stage between the server threads and the outputs
+    private final int routingThreads;
+    private final int routingRingSize;
+
     // relp input
     private final int listenPort;
+    private final boolean asyncRouting;
 
     // lookups
     private final String cfe07Lookup;
     private final String cfe16Lookup;
     private final String kin02Lookup;
 
+    // record formats
+    private final String recordFormats;
+    private final String kin02SdElementId;
+    private final String cfe16SdElementId;
+
+    // routing decisions cached per lookup
+    private final int routingCacheSize;
+
     // routing targets
     private final Map<String, TargetConfig> targetConfigMap;
 
@@ -82,7 +95,37 @@ public class RoutingConfig {
     private final int connectionTimeout;
     private final int readTimeout;
     private final int writeTimeout;
+    private final int closeTimeout;
     private final int reconnectInterval;
+    private final boolean reconnectJitter;
+
+    // circuit breaker
+    private final int circuitBreakerFailures;
+    private final int circuitBreakerOpenDuration;
+
+    // outputs
+    private final int outputThreads;
+
+    // output batching
+    private final int outputBatchSize;
+    private final int outputBatchBytes;
+    private final int outputBatchLinger;
+    private final int outputWindowSize;
+
+    // overflow
+    private final String spillDirectory;
+    private final int spillSegmentSize;
+    private final long spillMaxBytes;
+    private final String spillFsync;
+    private final int spillFsyncInterval;
+
+    // journal
+    private final boolean journalEnabled;
+    private final String journalDirectory;
+    private final long journalSegmentSize;
+    private final long journalMaxBytes;
+    private final boolean journalFsync;
+    private final long journalRetryInterval;
 
     public RoutingConfig() throws IOException {
         Properties properties = System.getProperties();
@@ -91,15 +134,32 @@ public class RoutingConfig {
         String serverThreadsString = properties.getProperty("serverThreads", "1");
         this.serverThreads = Integer.parseInt(serverThreadsString);
 
+        // routing stage, records are parsed and routed on the server threads if 0
+        this.routingThreads = Integer.parseInt(properties.getProperty("routingThreads", "0"));
+        // records waiting per routing thread, a power of two
+        this.routingRingSize = Integer.parseInt(properties.getProperty("routingRingSize", "4096"));
+
         // relp input
         String listenPortString = properties.getProperty("listenPort", "1601");
         this.listenPort = Integer.parseInt(listenPortString);
+        // respond to inbound frames once routed instead of holding the server thread
+        this.asyncRouting = Boolean.parseBoolean(properties.getProperty("asyncRouting", "false"));
 
         // lookups
         this.cfe07Lookup = properties.getProperty("cfe07LookupPath", "cfe07Lookups/");
         this.cfe16Lookup = properties.getProperty("cfe16LookupPath", "cfe16Lookups/");
         this.kin02Lookup = properties.getProperty("kin02LookupPath", "kin02Lookups/");
 
+        // record formats tried in order before cfe_07, comma separated
+        this.recordFormats = properties.getProperty("recordFormats", "kin02,cfe16");
+        // SD-IDs the record formats are recognized by
+        this.kin02SdElementId = properties.getProperty("kin02SdElementId", "stream-processor@48577");
+        this.cfe16SdElementId = properties.getProperty("cfe16SdElementId", "CFE-16-metadata@48577");
+
+        // routing decisions cached per lookup, 0 to disable. Kept until evicted, reloading the lookups requires
+        // invalidating them
+        this.routingCacheSize = Integer.parseInt(properties.getProperty("routingCacheSize", "65536"));
+
         // routing targets>
         try (FileReader fileReader = new FileReader(properties.getProperty("routingTargetsConfig", "targets.json"))) {
             try (BufferedReader bufferedReader = new BufferedReader(fileReader)) {
@@ -126,17 +186,69 @@ public class RoutingConfig {
         connectionTimeout = Integer.parseInt(properties.getProperty("connectionTimeout", "5000"));
         readTimeout = Integer.parseInt(properties.getProperty("readTimeout", "2500"));
         writeTimeout = Integer.parseInt(properties.getProperty("writeTimeout", "1500"));
+        // waiting for the targets to acknowledge on shutdown, then records are spilled or failed
+        closeTimeout = Integer.parseInt(properties.getProperty("closeTimeout", "10000"));
         reconnectInterval = Integer.parseInt(properties.getProperty("reconnectInterval", "1000"));
+        // random reconnect delays up to the backoff delay, spreads out the outputs of a target going down
+        reconnectJitter = Boolean.parseBoolean(properties.getProperty("reconnectJitter", "true"));
+
+        // circuit breaker, per endpoint, 0 failures to open it only once the retry budget is spent
+        circuitBreakerFailures = Integer.parseInt(properties.getProperty("circuitBreakerFailures", "3"));
+        circuitBreakerOpenDuration = Integer.parseInt(properties.getProperty("circuitBreakerOpenDuration", "30000"));
+
+        // event loops shared by all outputs
+        outputThreads = Integer.parseInt(properties.getProperty("outputThreads", "1"));
+
+        // output batching
+        outputBatchSize = Integer.parseInt(properties.getProperty("outputBatchSize", "1"));
+        outputBatchBytes = Integer
+                .parseInt(properties.getProperty("outputBatchBytes", String.valueOf(Integer.MAX_VALUE)));
+        outputBatchLinger = Integer.parseInt(properties.getProperty("outputBatchLinger", "0"));
+        outputWindowSize = Integer.parseInt(properties.getProperty("outputWindowSize", "1"));
+
+        // overflow
+        spillDirectory = properties.getProperty("spillDirectory", "spill/");
+        spillSegmentSize = Integer
+                .parseInt(properties.getProperty("spillSegmentSize", String.valueOf(64 * 1024 * 1024)));
+        // per target
+        spillMaxBytes = Long.parseLong(properties.getProperty("spillMaxBytes", String.valueOf(1024L * 1024 * 1024)));
+        // always, interval or never
+        spillFsync = properties.getProperty("spillFsync", "interval");
+        spillFsyncInterval = Integer.parseInt(properties.getProperty("spillFsyncInterval", "1000"));
+
+        // journal
+        journalEnabled = Boolean.parseBoolean(properties.getProperty("journalEnabled", "false"));
+        journalDirectory = properties.getProperty("journalDirectory", "journal/");
+        journalSegmentSize = Long
+                .parseLong(properties.getProperty("journalSegmentSize", String.valueOf(64 * 1024 * 1024)));
+        // oldest segments are dropped beyond this, with the records still in them
+        journalMaxBytes = Long
+                .parseLong(properties.getProperty("journalMaxBytes", String.valueOf(1024L * 1024 * 1024)));
+        journalFsync = Boolean.parseBoolean(properties.getProperty("journalFsync", "true"));
+        // milliseconds between routing the records not delivered again, 0 routes them again only on the next start
+        journalRetryInterval = Long.parseLong(properties.getProperty("journalRetryInterval", "30000"));
     }
 
     public int getServerThreads() {
         return serverThreads;
     }
 
+    public int getRoutingThreads() {
+        return routingThreads;
+    }
+
+    public int getRoutingRingSize() {
+        return routingRingSize;
+    }
+
     public int getListenPort() {
         return listenPort;
     }
 
+    public boolean isAsyncRouting() {
+        return asyncRouting;
+    }
+
     public String getCfe16Lookup() {
         return cfe16Lookup;
     }
@@ -149,6 +261,22 @@ public class RoutingConfig {
         return cfe07Lookup;
     }
 
+    public String getRecordFormats() {
+        return recordFormats;
+    }
+
+    public String getKin02SdElementId() {
+        return kin02SdElementId;
+    }
+
+    public String getCfe16SdElementId() {
+        return cfe16SdElementId;
+    }
+
+    public int getRoutingCacheSize() {
+        return routingCacheSize;
+    }
+
     public Map<String, TargetConfig> getTargetConfigMap() {
         return targetConfigMap;
     }
@@ -177,7 +305,87 @@ public class RoutingConfig {
         return writeTimeout;
     }
 
+    public int getCloseTimeout() {
+        return closeTimeout;
+    }
+
     public int getReconnectInterval() {
         return reconnectInterval;
     }
+
+    public boolean isReconnectJitter() {
+        return reconnectJitter;
+    }
+
+    public int getCircuitBreakerFailures() {
+        return circuitBreakerFailures;
+    }
+
+    public int getCircuitBreakerOpenDuration() {
+        return circuitBreakerOpenDuration;
+    }
+
+    public int getOutputThreads() {
+        return outputThreads;
+    }
+
+    public int getOutputBatchSize() {
+        return outputBatchSize;
+    }
+
+    public int getOutputBatchBytes() {
+        return outputBatchBytes;
+    }
+
+    public int getOutputBatchLinger() {
+        return outputBatchLinger;
+    }
+
+    public int getOutputWindowSize() {
+        return outputWindowSize;
+    }
+
+    public String getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    public int getSpillSegmentSize() {
+        return spillSegmentSize;
+    }
+
+    public long getSpillMaxBytes() {
+        return spillMaxBytes;
+    }
+
+    public String getSpillFsync() {
+        return spillFsync;
+    }
+
+    public int getSpillFsyncInterval() {
+        return spillFsyncInterval;
+    }
+
+    public boolean isJournalEnabled() {
+        return journalEnabled;
+    }
+
+    public String getJournalDirectory() {
+        return journalDirectory;
+    }
+
+    public long getJournalSegmentSize() {
+        return journalSegmentSize;
+    }
+
+    public long getJournalMaxBytes() {
+        return journalMaxBytes;
+    }
+
+    public boolean isJournalFsync() {
+        return journalFsync;
+    }
+
+    public long getJournalRetryInterval() {
+        return journalRetryInterval;
+    }
 }
@@ -45,12 +45,35 @@
  */
 package com.teragrep.cfe_35.config.json;
 
+import java.util.Collections;
+import java.util.List;
+
 public class TargetConfig {
 
     private boolean enabled;
     private String target;
     private String port;
+    // records sent on a connection before it is replaced by a new one, spreading connections over load balancers
     private String rebindinterval;
+    // seconds before the first reconnect attempt, doubled per attempt up to resumeintervalmax if useresumeintervalmax
+    // is set, up to 1800 otherwise
+    private String resumeinterval;
+    // reconnect attempts before the circuit is opened, -1 for no limit
+    private String resumeretrycount;
+    private String resumeintervalmax;
+    private boolean useresumeintervalmax;
+    // records queued in memory before the overflow policy applies
+    private String queuesize = "10000";
+    // block, dead-letter or spill
+    private String overflow = "block";
+    // replaces target and port when the records are spread over several endpoints
+    private List<EndpointConfig> endpoints;
+    // least-outstanding or weighted-round-robin
+    private String balancing = "least-outstanding";
+    // parallel connections to each endpoint
+    private String connections = "1";
+    // host keeps the records of a host in order on one connection, round-robin does not
+    private String striping = "host";
 
     public boolean isEnabled() {
         return enabled;
@@ -84,9 +107,99 @@ public class TargetConfig {
         this.rebindinterval = rebindinterval;
     }
 
+    public String getResumeinterval() {
+        return resumeinterval;
+    }
+
+    public void setResumeinterval(String resumeinterval) {
+        this.resumeinterval = resumeinterval;
+    }
+
+    public String getResumeretrycount() {
+        return resumeretrycount;
+    }
+
+    public void setResumeretrycount(String resumeretrycount) {
+        this.resumeretrycount = resumeretrycount;
+    }
+
+    public String getResumeintervalmax() {
+        return resumeintervalmax;
+    }
+
+    public void setResumeintervalmax(String resumeintervalmax) {
+        this.resumeintervalmax = resumeintervalmax;
+    }
+
+    public boolean isUseresumeintervalmax() {
+        return useresumeintervalmax;
+    }
+
+    public void setUseresumeintervalmax(boolean useresumeintervalmax) {
+        this.useresumeintervalmax = useresumeintervalmax;
+    }
+
+    public String getQueuesize() {
+        return queuesize;
+    }
+
+    public void setQueuesize(String queuesize) {
+        this.queuesize = queuesize;
+    }
+
+    public String getOverflow() {
+        return overflow;
+    }
+
+    public void setOverflow(String overflow) {
+        this.overflow = overflow;
+    }
+
+    /**
+     * @return configured endpoints, or the single endpoint of target and port if none are configured
+     */
+    public List<EndpointConfig> getEndpoints() {
+        if (endpoints == null || endpoints.isEmpty()) {
+            return Collections.singletonList(new EndpointConfig(target, port));
+        }
+        return endpoints;
+    }
+
+    public void setEndpoints(List<EndpointConfig> endpoints) {
+        this.endpoints = endpoints;
+    }
+
+    public String getBalancing() {
+        return balancing;
+    }
+
+    public void setBalancing(String balancing) {
+        this.balancing = balancing;
+    }
+
+    public String getConnections() {
+        return connections;
+    }
+
+    public void setConnections(String connections) {
+        this.connections = connections;
+    }
+
+    public String getStriping() {
+        return striping;
+    }
+
+    public void setStriping(String striping) {
+        this.striping = striping;
+    }
+
     @Override
     public String toString() {
         return "TargetConfigJson{" + "enabled=" + enabled + ", target='" + target + '\'' + ", port='" + port + '\''
-                + ", rebindinterval='" + rebindinterval + '\'' + '}';
+                + ", rebindinterval='" + rebindinterval + '\'' + ", resumeinterval='" + resumeinterval + '\''
+                + ", resumeretrycount='" + resumeretrycount + '\'' + ", resumeintervalmax='" + resumeintervalmax + '\''
+                + ", useresumeintervalmax=" + useresumeintervalmax + ", queuesize='" + queuesize + '\'' + ", overflow='"
+                + overflow + '\'' + ", endpoints=" + endpoints + ", balancing='" + balancing + '\'' + ", connections='"
+                + connections + '\'' + ", striping='" + striping + '\'' + '}';
     }
 }
@@ -0,0 +1,103 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import com.teragrep.rlp_01.RelpCommand;
+import com.teragrep.rlp_01.RelpFrameTX;
+import com.teragrep.rlp_03.channel.context.RelpWrite;
+import com.teragrep.rlp_03.frame.delegate.FrameContext;
+import com.teragrep.rlp_03.frame.delegate.event.RelpEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+
+/**
+ * Syslog event responding to the client only once every target has acknowledged the record. The server thread is
+ * released as soon as the record is handed to the targets, the response is written by the thread completing the
+ * routing.
+ */
+final class AsyncRelpEventSyslog extends RelpEvent {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncRelpEventSyslog.class);
+
+    private final MessageParser messageParser;
+
+    AsyncRelpEventSyslog(MessageParser messageParser) {
+        this.messageParser = messageParser;
+    }
+
+    @Override
+    public void accept(FrameContext frameContext) {
+        try {
+            // responses are created before the frame is released
+            final RelpFrameTX ok = createResponse(frameContext.relpFrame(), RelpCommand.RESPONSE, "200 OK");
+            final RelpFrameTX failed = createResponse(
+                    frameContext.relpFrame(), RelpCommand.RESPONSE, "500 routing failed"
+            );
+            final RelpWrite relpWrite = frameContext.establishedContext().relpWrite();
+
+            messageParser.route(frameContext).whenComplete((result, throwable) -> {
+                if (throwable == null) {
+                    relpWrite.accept(Collections.singletonList(ok));
+                }
+                else {
+                    // client resends the record
+                    LOGGER.error("Routing failed, responding with <500>", throwable);
+                    relpWrite.accept(Collections.singletonList(failed));
+                }
+            });
+        }
+        finally {
+            frameContext.relpFrame().close();
+        }
+    }
+
+    @Override
+    public void close() {
+        messageParser.close();
+    }
+}
@@ -80,8 +80,15 @@ public class CFE07RecordFrame implements Routeable {
 
     @Override
     public RoutingData route(byte[] data) {
+        // the decision depends only on hostname and appName
+        LookupKey lookupKey = new LookupKey(rfc5424Frame.hostname.toBytes(), rfc5424Frame.appName.toBytes());
+        Set<String> targets = routingLookup.cfe07Decisions.get(lookupKey, key -> decide());
+        return new RoutingData(data, targets);
+    }
+
+    private TargetSet decide() {
         // default to dead-letter
-        RoutingData routingData = new RoutingData(data, deadLetter.asSingletonSet());
+        Set<String> routingTargets = deadLetter.asSingletonSet();
         boolean routed = false;
 
         Hostname hostname = new Hostname(rfc5424Frame.hostname.toString());
@@ -89,7 +96,7 @@ public class CFE07RecordFrame implements Routeable {
 
         if (!hostname.validate()) {
             // invalid -> inspection
-            routingData = new RoutingData(data, inspection.asSingletonSet());
+            routingTargets = inspection.asSingletonSet();
             LOGGER
                     .debug(
                             "routed hostname <[{}]> appName <[{}]> to <{}> due to hostname not valid",
@@ -110,9 +117,9 @@ public class CFE07RecordFrame implements Routeable {
         }
 
         if (!routed) {
-            if (!appName.equals(appName.asCompatible())) {
+            AppName compatibleAppName = appName.asCompatible();
+            if (!appName.equals(compatibleAppName)) {
                 // appName changed, log about it
-                AppName compatibleAppName = appName.asCompatible();
                 LOGGER
                         .info(
                                 "changed appName from <[{}]> to compatibleAppName <[{}]>", appName.appName,
@@ -121,24 +128,23 @@ public class CFE07RecordFrame implements Routeable {
                 appName = compatibleAppName;
             }
 
-            Set<String> targets = routingLookup.getRoutes(hostname, appName);
-            routingData = new RoutingData(data, targets);
+            routingTargets = routingLookup.getRoutes(hostname, appName);
 
             routed = true;
         }
 
-        if (routingData.targets.isEmpty()) {
-            routingData = new RoutingData(data, deadLetter.asSingletonSet());
+        if (routingTargets.isEmpty()) {
+            routingTargets = deadLetter.asSingletonSet();
         }
         LOGGER
                 .debug(
                         "routing set for hostname <[{}]> appName <[{}]>: <{}>", hostname.hostname, appName.appName,
-                        routingData.targets
+                        routingTargets
                 );
         if (!routed) {
             throw new IllegalStateException("routing logic failure aborting");
         }
 
-        return routingData;
+        return routingLookup.targetIds.of(routingTargets);
     }
 }
@@ -48,6 +48,7 @@ package com.teragrep.cfe_35.router;
 import com.teragrep.cfe_35.config.RoutingConfig;
 import com.teragrep.cfe_35.router.targets.DeadLetter;
 import com.teragrep.cfe_35.router.targets.Inspection;
+import com.teragrep.rlo_06.Fragment;
 import com.teragrep.rlo_06.RFC5424Frame;
 import com.teragrep.rlo_06.SDVector;
 import com.teragrep.rlo_11.key.AppName;
@@ -79,7 +80,7 @@ public class CFE16RecordFrame implements Validateable, Routeable {
             DeadLetter deadLetter,
             Inspection inspection
     ) {
-        this.authTokenVector = new SDVector("CFE-16-metadata@48577", "authentication_token");
+        this.authTokenVector = new SDVector(routingConfig.getCfe16SdElementId(), "authentication_token");
         this.routingLookup = routingLookup;
         this.rfc5424Frame = rfc5424Frame;
         this.truncationLength = routingConfig.getCfe16TruncationLength();
@@ -89,11 +90,34 @@ public class CFE16RecordFrame implements Validateable, Routeable {
 
     @Override
     public RoutingData route(byte[] data) {
+        Fragment cfe16Token = rfc5424Frame.structuredData.getValue(authTokenVector);
+        RewriteDecision rewriteDecision = routingLookup.cfe16Decisions
+                .get(new LookupKey(cfe16Token.toBytes()), key -> decide(cfe16Token.toString()));
+
+        if (rewriteDecision.header == null) {
+            return new RoutingData(data, rewriteDecision.targets);
+        }
+
+        // replace hostname, appName
+        byte[] modifiedData = ReplacementUtilityClass.splice(data, rewriteDecision.header);
+
+        // truncate if necessary
+        byte[] truncatedData = TruncationUtilityClass.truncate(modifiedData, truncationLength);
+        if (truncatedData.length != modifiedData.length) {
+            LOGGER
+                    .info(
+                            "Truncated size [{}] event to [{}] for authToken <[{}]>", modifiedData.length,
+                            truncatedData.length, cfe16Token
+                    );
+        }
+        return new RoutingData(truncatedData, rewriteDecision.targets);
+    }
+
+    private RewriteDecision decide(String cfe16Token) {
         // default to dead-letter
-        RoutingData routingData = new RoutingData(data, deadLetter.asSingletonSet());
+        RewriteDecision rewriteDecision = new RewriteDecision(routingLookup.targetIds.of(deadLetter.asSingletonSet()));
         boolean routed = false;
 
-        String cfe16Token = rfc5424Frame.structuredData.getValue(authTokenVector).toString();
         LOGGER.debug("cfe_16 routing with authToken <[{}]>", cfe16Token);
 
         Hostname hostname = routingLookup.getHostnameForToken(cfe16Token);
@@ -101,7 +125,6 @@ public class CFE16RecordFrame implements Validateable, Routeable {
 
         if (hostname.isStub) {
             // no mapping -> dead-letter
-            routingData = new RoutingData(data, deadLetter.asSingletonSet());
             LOGGER
                     .debug(
                             "routed hostname <[{}]> appName <[{}]> to <{}> due to hostname not routed. authToken <[{}]>",
@@ -111,7 +134,7 @@ public class CFE16RecordFrame implements Validateable, Routeable {
         }
         else if (!hostname.validate()) {
             // invalid -> inspection
-            routingData = new RoutingData(data, inspection.asSingletonSet());
+            rewriteDecision = new RewriteDecision(routingLookup.targetIds.of(inspection.asSingletonSet()));
             LOGGER
                     .debug(
                             "routed hostname <[{}]> appName <[{}]> to <{}> due to hostname not valid. authToken <[{}]>",
@@ -123,7 +146,6 @@ public class CFE16RecordFrame implements Validateable, Routeable {
         if (!routed) {
             if (appName.isStub) {
                 // no mapping -> dead-letter
-                routingData = new RoutingData(data, deadLetter.asSingletonSet());
                 LOGGER
                         .debug(
                                 "routed hostname <[{}]> appName <[{}]> to <{}> due to appName not routed. authToken <[{}]>",
@@ -145,9 +167,9 @@ public class CFE16RecordFrame implements Validateable, Routeable {
         }
 
         if (!routed) {
-            if (!appName.equals(appName.asCompatible())) {
+            AppName compatibleAppName = appName.asCompatible();
+            if (!appName.equals(compatibleAppName)) {
                 // appName changed, log about it
-                AppName compatibleAppName = appName.asCompatible();
                 LOGGER
                         .info(
                                 "changed appName from <[{}]> to compatibleAppName <[{}]>. authToken <[{}]>", appName,
@@ -156,35 +178,24 @@ public class CFE16RecordFrame implements Validateable, Routeable {
                 appName = compatibleAppName;
             }
 
-            // replace hostname, appName
-            byte[] modifiedData = ReplacementUtilityClass.replace(rfc5424Frame, hostname.hostname, appName.appName);
-
-            // truncate if necessary
-            byte[] truncatedData = TruncationUtilityClass.truncate(modifiedData, truncationLength);
-            if (truncatedData.length != modifiedData.length) {
-                LOGGER
-                        .info(
-                                "Truncated size [{}] event to [{}] for authToken <[{}]>", modifiedData.length,
-                                truncatedData.length, cfe16Token
-                        );
-            }
-
             // find appropriate targets for the routingKey
             Set<String> targets = routingLookup.getRoutes(hostname, appName);
-            routingData = new RoutingData(truncatedData, targets);
+            if (!targets.isEmpty()) {
+                rewriteDecision = new RewriteDecision(
+                        routingLookup.targetIds.of(targets),
+                        hostname.hostname,
+                        appName.appName
+                );
+            }
             routed = true;
         }
 
-        if (routingData.targets.isEmpty()) {
-            routingData = new RoutingData(data, deadLetter.asSingletonSet());
-        }
-
-        LOGGER.debug("routing set for authToken <[{}]>: <{}>", cfe16Token, routingData.targets);
+        LOGGER.debug("routing set for authToken <[{}]>: <{}>", cfe16Token, rewriteDecision.targets);
         if (!routed) {
             throw new IllegalStateException("routing logic failure aborting");
         }
 
-        return routingData;
+        return rewriteDecision;
     }
 
     @Override
@@ -0,0 +1,148 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker of a single endpoint. Consecutive failures open the circuit, after which no connection is attempted
+ * until openDuration has passed. The circuit is then half-open and a single attempt decides whether it closes or opens
+ * again. With a failureThreshold of 0 failures never open the circuit, it opens only when tripped.
+ */
+final class CircuitBreaker {
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openDuration;
+    private final LongSupplier clock;
+
+    private State state;
+    private int failures;
+    private long openedAt;
+
+    /**
+     * @param failureThreshold consecutive failures opening the circuit, 0 for never
+     * @param openDuration     milliseconds the circuit stays open
+     */
+    CircuitBreaker(int failureThreshold, long openDuration) {
+        this(failureThreshold, openDuration, () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+    }
+
+    /**
+     * @param clock current time in milliseconds
+     */
+    CircuitBreaker(int failureThreshold, long openDuration, LongSupplier clock) {
+        if (failureThreshold < 0) {
+            throw new IllegalArgumentException("failureThreshold must not be negative, was <" + failureThreshold + ">");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+        this.clock = clock;
+        this.state = State.CLOSED;
+        this.failures = 0;
+    }
+
+    /**
+     * @return true if an attempt may be made now, moves an open circuit to half-open once openDuration has passed
+     */
+    synchronized boolean allowAttempt() {
+        if (state == State.OPEN && openRemaining() == 0) {
+            state = State.HALF_OPEN;
+        }
+        return state != State.OPEN;
+    }
+
+    /**
+     * @return milliseconds until the open circuit becomes half-open, 0 if not open
+     */
+    synchronized long openRemaining() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, openedAt + openDuration - clock.getAsLong());
+    }
+
+    synchronized void success() {
+        state = State.CLOSED;
+        failures = 0;
+    }
+
+    /**
+     * @return true if this failure opened the circuit
+     */
+    synchronized boolean failure() {
+        failures++;
+        boolean thresholdReached = failureThreshold > 0 && failures >= failureThreshold;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && thresholdReached)) {
+            state = State.OPEN;
+            openedAt = clock.getAsLong();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Opens the circuit regardless of the failures so far.
+     *
+     * @return true if the circuit was not open already
+     */
+    synchronized boolean trip() {
+        if (state == State.OPEN) {
+            return false;
+        }
+        state = State.OPEN;
+        openedAt = clock.getAsLong();
+        return true;
+    }
+
+    synchronized State state() {
+        return state;
+    }
+}
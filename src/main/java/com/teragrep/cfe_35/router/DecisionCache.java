@@ -0,0 +1,173 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Bounded cache of routing decisions shared by all connections. Entries are spread over segments, each a least recently
+ * used map under its own lock, so that routing threads seldom wait for each other. Decisions are kept until evicted or
+ * invalidated, the lookups are loaded once at startup and a reload of them must call {@link #invalidateAll()}. A
+ * maximum size of 0 disables caching.
+ */
+final class DecisionCache<K, V> {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment<K, V>[] segments;
+    private final int mask;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    // decisions made before an invalidation are not cached
+    private volatile int generation;
+
+    @SuppressWarnings("unchecked")
+    DecisionCache(String name, int maximumSize, MetricRegistry metricRegistry) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("maximum size <[" + maximumSize + "]> of <[" + name + "]> is negative");
+        }
+        this.hits = metricRegistry.counter(name(DecisionCache.class, "<[" + name + "]>", "hits"));
+        this.misses = metricRegistry.counter(name(DecisionCache.class, "<[" + name + "]>", "misses"));
+        this.evictions = metricRegistry.counter(name(DecisionCache.class, "<[" + name + "]>", "evictions"));
+
+        int segmentCount = maximumSize == 0 ? 0 : maximumSize < SEGMENTS ? 1 : SEGMENTS;
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            this.segments[i] = new Segment<>((maximumSize + segmentCount - 1) / segmentCount, evictions);
+        }
+        this.mask = segmentCount - 1;
+        this.generation = 0;
+
+        metricRegistry.gauge(name(DecisionCache.class, "<[" + name + "]>", "size"), () -> this::size);
+    }
+
+    /**
+     * @param decide makes the decision when it is not cached, called without holding a lock
+     */
+    V get(K key, Function<K, V> decide) {
+        if (segments.length == 0) {
+            misses.inc();
+            return decide.apply(key);
+        }
+        Segment<K, V> segment = segmentFor(key);
+        V value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+        if (value != null) {
+            hits.inc();
+            return value;
+        }
+
+        misses.inc();
+        int decidedGeneration = generation;
+        value = decide.apply(key);
+        synchronized (segment) {
+            if (decidedGeneration == generation) {
+                segment.put(key, value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Drops every decision, for when the lookups they were made with change.
+     */
+    synchronized void invalidateAll() {
+        generation++;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & mask];
+    }
+
+    private static final class Segment<K, V> extends LinkedHashMap<K, V> {
+
+        private final int capacity;
+        private final Counter evictions;
+
+        Segment(int capacity, Counter evictions) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            if (size() > capacity) {
+                evictions.inc();
+                return true;
+            }
+            return false;
+        }
+    }
+}
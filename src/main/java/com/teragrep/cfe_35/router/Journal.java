@@ -0,0 +1,542 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SlidingWindowReservoir;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Append-only log of routed records and their completions in segment files of a directory. Appends from all threads are
+ * written by a single writer thread, which writes everything queued since its previous write with one write and one
+ * fsync, so the cost of an fsync is shared by all records arriving meanwhile. A segment is deleted once every record in
+ * it and in the older segments has completed, or once the segments exceed their size limit, oldest first.
+ */
+final class Journal implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Journal.class);
+
+    private static final byte RECORD = 1;
+    private static final byte COMPLETE = 2;
+    // entry header: body length, crc32 of the body
+    private static final int ENTRY_HEADER = 2 * Integer.BYTES;
+
+    private final Path directory;
+    private final long segmentSize;
+    private final long maxBytes;
+    private final boolean fsync;
+
+    private final ReentrantLock lock;
+    private final Condition queued;
+    private final ArrayDeque<Entry> queue;
+    private boolean closed;
+    private long nextId;
+    private final Thread writer;
+
+    // owned by the writer thread
+    private final ArrayDeque<Segment> segments;
+    private long nextSequence;
+    private long bytes;
+    private final CRC32 crc32;
+
+    // records left incomplete by the previous run, they keep their segments until completed
+    private final List<Entry> incomplete;
+
+    // metrics
+    private final Counter appends;
+    private final Counter carried;
+    private final Counter dropped;
+    private final Histogram commitEntries;
+    private final Timer commitLatency;
+
+    /**
+     * @param segmentSize bytes written to a segment before a new one is started
+     * @param maxBytes    bytes kept in all segments, the oldest segments are dropped beyond it
+     * @param fsync       false leaves flushing to the operating system
+     */
+    Journal(Path directory, long segmentSize, long maxBytes, boolean fsync, MetricRegistry metricRegistry)
+            throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+        this.fsync = fsync;
+
+        this.lock = new ReentrantLock();
+        this.queued = lock.newCondition();
+        this.queue = new ArrayDeque<>();
+        this.closed = false;
+
+        this.segments = new ArrayDeque<>();
+        this.nextSequence = 0;
+        this.bytes = 0;
+        this.crc32 = new CRC32();
+        this.incomplete = new ArrayList<>();
+
+        this.appends = metricRegistry.counter(name(Journal.class, "appends"));
+        this.carried = metricRegistry.counter(name(Journal.class, "carried"));
+        this.dropped = metricRegistry.counter(name(Journal.class, "dropped"));
+        this.commitEntries = metricRegistry
+                .histogram(name(Journal.class, "commitEntries"), () -> new Histogram(new SlidingWindowReservoir(10000)));
+        this.commitLatency = metricRegistry
+                .timer(name(Journal.class, "commitLatency"), () -> new Timer(new SlidingWindowReservoir(10000)));
+
+        Files.createDirectories(directory);
+        this.nextId = recover();
+
+        this.writer = new Thread(this::write, "journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Reads the existing segments, they are deleted once the incomplete records in them complete.
+     *
+     * @return next free id
+     */
+    private long recover() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory, "journal-*.log")) {
+            for (Path path : directoryStream) {
+                paths.add(path);
+            }
+        }
+        // zero padded sequence, lexical order is the order of writing
+        Collections.sort(paths);
+
+        long maxId = 0;
+        Map<Long, Entry> records = new LinkedHashMap<>();
+        for (Path path : paths) {
+            String fileName = path.getFileName().toString();
+            long sequence = Long
+                    .parseLong(fileName.substring("journal-".length(), fileName.length() - ".log".length()));
+            nextSequence = Math.max(nextSequence, sequence + 1);
+
+            Segment segment = new Segment(path, null);
+            ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(path));
+            segment.bytes = content.capacity();
+            ByteBuffer body;
+            while ((body = nextBody(content)) != null) {
+                byte type = body.get();
+                long id = body.getLong();
+                maxId = Math.max(maxId, id);
+                if (type == RECORD) {
+                    Entry entry = new Entry(RECORD, id, decodeRecord(body), null);
+                    entry.segment = segment;
+                    entry.durable.complete(null);
+                    records.put(id, entry);
+                }
+                else {
+                    records.remove(id);
+                }
+            }
+            if (content.hasRemaining()) {
+                LOGGER.warn("Ignoring <{}> bytes after the last intact entry of <[{}]>", content.remaining(), path);
+            }
+            segments.add(segment);
+            bytes = bytes + segment.bytes;
+        }
+        for (Entry entry : records.values()) {
+            entry.segment.incomplete++;
+            incomplete.add(entry);
+        }
+        if (!incomplete.isEmpty()) {
+            LOGGER.info("Recovered <{}> incomplete records from <[{}]>", incomplete.size(), directory);
+        }
+        return maxId + 1;
+    }
+
+    /**
+     * @return body of the next intact entry, null at the end of the content or at a torn entry
+     */
+    private ByteBuffer nextBody(ByteBuffer content) {
+        if (content.remaining() < ENTRY_HEADER) {
+            return null;
+        }
+        int position = content.position();
+        int length = content.getInt(position);
+        int crc = content.getInt(position + Integer.BYTES);
+        if (length <= 0 || length > content.remaining() - ENTRY_HEADER) {
+            return null;
+        }
+        crc32.reset();
+        crc32.update(content.array(), position + ENTRY_HEADER, length);
+        if ((int) crc32.getValue() != crc) {
+            return null;
+        }
+        ByteBuffer body = ByteBuffer.wrap(content.array(), position + ENTRY_HEADER, length).slice();
+        content.position(position + ENTRY_HEADER + length);
+        return body;
+    }
+
+    private RoutingData decodeRecord(ByteBuffer body) {
+        int targetCount = body.getInt();
+        Set<String> targets = new LinkedHashSet<>();
+        for (int i = 0; i < targetCount; i++) {
+            byte[] target = new byte[body.getShort()];
+            body.get(target);
+            targets.add(new String(target, StandardCharsets.UTF_8));
+        }
+        byte[] payload = new byte[body.getInt()];
+        body.get(payload);
+        return new RoutingData(payload, targets);
+    }
+
+    /**
+     * @return records the previous run left incomplete, in the order they were journaled, to be completed like appended
+     *         ones
+     */
+    List<Entry> incomplete() {
+        return incomplete;
+    }
+
+    /**
+     * @return entry whose future completes once the record is on disk
+     * @throws IllegalStateException if the journal is closed
+     */
+    Entry append(RoutingData routingData) {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("journal is closed");
+            }
+            Entry entry = new Entry(RECORD, nextId++, routingData, null);
+            queue.add(entry);
+            queued.signal();
+            appends.inc();
+            return entry;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks the record complete, it is not replayed once the marker is on disk.
+     */
+    void complete(Entry record) {
+        lock.lock();
+        try {
+            if (closed) {
+                // replayed on the next start
+                return;
+            }
+            queue.add(new Entry(COMPLETE, record.id, null, record));
+            queued.signal();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Journals the record again and marks the original complete, so that a record not yet delivered does not keep its
+     * segment.
+     *
+     * @return entry of the record journaled again, to be completed like appended ones, null if the journal is closed
+     */
+    Entry carry(Entry record) {
+        lock.lock();
+        try {
+            if (closed) {
+                // replayed on the next start
+                return null;
+            }
+            Entry entry = new Entry(RECORD, nextId++, record.routingData, null);
+            queue.add(entry);
+            queue.add(new Entry(COMPLETE, record.id, null, record));
+            queued.signal();
+            carried.inc();
+            return entry;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs on the writer thread for the lifetime of the journal.
+     */
+    private void write() {
+        List<Entry> entries = new ArrayList<>();
+        while (true) {
+            lock.lock();
+            try {
+                while (queue.isEmpty() && !closed) {
+                    queued.awaitUninterruptibly();
+                }
+                if (queue.isEmpty()) {
+                    break;
+                }
+                entries.addAll(queue);
+                queue.clear();
+            }
+            finally {
+                lock.unlock();
+            }
+
+            try (final Timer.Context context = commitLatency.time()) {
+                commit(entries);
+                for (Entry entry : entries) {
+                    entry.durable.complete(null);
+                }
+            }
+            catch (IOException e) {
+                LOGGER.error("Exception while writing journal <[{}]>", directory, e);
+                for (Entry entry : entries) {
+                    entry.durable.completeExceptionally(e);
+                }
+            }
+            commitEntries.update(entries.size());
+            entries.clear();
+            retire();
+        }
+        closeSegments();
+    }
+
+    private void commit(List<Entry> entries) throws IOException {
+        Segment segment = segments.peekLast();
+        if (segment == null || segment.fileChannel == null || segment.bytes >= segmentSize) {
+            if (segment != null && segment.fileChannel != null) {
+                segment.fileChannel.close();
+            }
+            Path path = directory.resolve(String.format("journal-%020d.log", nextSequence));
+            segment = new Segment(
+                    path,
+                    FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)
+            );
+            nextSequence++;
+            segments.add(segment);
+        }
+
+        ByteBuffer[] buffers = new ByteBuffer[entries.size()];
+        long size = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            Entry entry = entries.get(i);
+            buffers[i] = encode(entry);
+            size = size + buffers[i].remaining();
+            if (entry.type == RECORD) {
+                entry.segment = segment;
+                segment.incomplete++;
+            }
+            else {
+                entry.record.segment.incomplete--;
+            }
+        }
+
+        long written = 0;
+        while (written < size) {
+            written = written + segment.fileChannel.write(buffers);
+        }
+        segment.bytes = segment.bytes + size;
+        bytes = bytes + size;
+        if (fsync) {
+            segment.fileChannel.force(false);
+        }
+    }
+
+    private ByteBuffer encode(Entry entry) {
+        int bodyLength = 1 + Long.BYTES;
+        List<byte[]> targets = new ArrayList<>();
+        if (entry.type == RECORD) {
+            bodyLength = bodyLength + Integer.BYTES;
+            for (String target : entry.routingData.targets) {
+                byte[] targetBytes = target.getBytes(StandardCharsets.UTF_8);
+                targets.add(targetBytes);
+                bodyLength = bodyLength + Short.BYTES + targetBytes.length;
+            }
+            bodyLength = bodyLength + Integer.BYTES + entry.routingData.payload.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(ENTRY_HEADER + bodyLength);
+        buffer.position(ENTRY_HEADER);
+        buffer.put(entry.type);
+        buffer.putLong(entry.id);
+        if (entry.type == RECORD) {
+            buffer.putInt(targets.size());
+            for (byte[] target : targets) {
+                buffer.putShort((short) target.length);
+                buffer.put(target);
+            }
+            buffer.putInt(entry.routingData.payload.length);
+            buffer.put(entry.routingData.payload);
+        }
+        crc32.reset();
+        crc32.update(buffer.array(), ENTRY_HEADER, bodyLength);
+        buffer.putInt(0, bodyLength);
+        buffer.putInt(Integer.BYTES, (int) crc32.getValue());
+        buffer.rewind();
+        return buffer;
+    }
+
+    /**
+     * Deletes the oldest segments once all records in them have completed or the segments exceed their size limit,
+     * never the one written to.
+     */
+    private void retire() {
+        Segment oldest = segments.peekFirst();
+        while (oldest != null && oldest != segments.peekLast() && (oldest.incomplete == 0 || bytes > maxBytes)) {
+            if (oldest.incomplete > 0) {
+                LOGGER
+                        .error(
+                                "Dropping journal segment <[{}]> with <{}> incomplete records, journal exceeds <{}> bytes",
+                                oldest.path, oldest.incomplete, maxBytes
+                        );
+                dropped.inc(oldest.incomplete);
+            }
+            segments.removeFirst();
+            bytes = bytes - oldest.bytes;
+            try {
+                if (oldest.fileChannel != null) {
+                    oldest.fileChannel.close();
+                }
+                Files.delete(oldest.path);
+            }
+            catch (IOException e) {
+                LOGGER.warn("Exception while deleting journal segment <[{}]>", oldest.path, e);
+            }
+            oldest = segments.peekFirst();
+        }
+    }
+
+    private void closeSegments() {
+        for (Segment segment : segments) {
+            if (segment.fileChannel != null) {
+                try {
+                    segment.fileChannel.close();
+                }
+                catch (IOException e) {
+                    LOGGER.warn("Exception while closing journal segment <[{}]>", segment.path, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes what is queued and stops, records not yet complete are replayed on the next start.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            queued.signal();
+        }
+        finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+        }
+        catch (InterruptedException e) {
+            LOGGER.warn("Interrupted while closing journal <[{}]>", directory, e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static final class Entry {
+
+        private final byte type;
+        private final long id;
+        final RoutingData routingData;
+        // the record a completion refers to
+        private final Entry record;
+        // segment of a record, set by the writer
+        private Segment segment;
+
+        final CompletableFuture<Void> durable;
+
+        private Entry(byte type, long id, RoutingData routingData, Entry record) {
+            this.type = type;
+            this.id = id;
+            this.routingData = routingData;
+            this.record = record;
+            this.durable = new CompletableFuture<>();
+        }
+    }
+
+    private static final class Segment {
+
+        private final Path path;
+        // null for the segments of the previous run
+        private final FileChannel fileChannel;
+        private long bytes;
+        private int incomplete;
+
+        private Segment(Path path, FileChannel fileChannel) {
+            this.path = path;
+            this.fileChannel = fileChannel;
+            this.bytes = 0;
+            this.incomplete = 0;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import com.codahale.metrics.MetricRegistry;
+import com.teragrep.cfe_35.config.RoutingConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Journals every routed record before it is acknowledged to the client and marks it complete once all of its targets
+ * have acknowledged it. The journal has custody of the record in between, the client is acknowledged as soon as the
+ * record is on disk. A record that is not delivered is carried over in the journal and routed again every retry
+ * interval until delivered, records left incomplete by a crash or a shutdown are routed again on the next start. With a
+ * retry interval of 0 records not delivered are routed again only on the next start.
+ */
+public class JournaledTargetRouting implements TargetRouting {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JournaledTargetRouting.class);
+
+    // recovered records routed at a time
+    private static final int REPLAY_BATCH = 1024;
+
+    private final TargetRouting targetRouting;
+    private final Journal journal;
+    private final long retryInterval;
+
+    private final ReentrantLock lock;
+    private final Condition stopped;
+    // carried over records waiting for the next retry
+    private final List<Journal.Entry> carried;
+    private boolean closed;
+    private final Thread retrier;
+
+    public JournaledTargetRouting(
+            TargetRouting targetRouting,
+            RoutingConfig routingConfig,
+            MetricRegistry metricRegistry
+    ) throws IOException {
+        this(
+                targetRouting,
+                new Journal(Paths.get(routingConfig.getJournalDirectory()), routingConfig.getJournalSegmentSize(), routingConfig.getJournalMaxBytes(), routingConfig.isJournalFsync(), metricRegistry), routingConfig.getJournalRetryInterval()
+        );
+    }
+
+    JournaledTargetRouting(TargetRouting targetRouting, Journal journal) {
+        this(targetRouting, journal, 0);
+    }
+
+    /**
+     * @param retryInterval milliseconds between routing the records not delivered again, 0 leaves them to the next
+     *                      start
+     */
+    JournaledTargetRouting(TargetRouting targetRouting, Journal journal, long retryInterval) {
+        this.targetRouting = targetRouting;
+        this.journal = journal;
+        this.retryInterval = retryInterval;
+
+        this.lock = new ReentrantLock();
+        this.stopped = lock.newCondition();
+        this.carried = new ArrayList<>();
+        this.closed = false;
+
+        replay();
+
+        if (retryInterval > 0) {
+            this.retrier = new Thread(this::retry, "journal-retry");
+            this.retrier.setDaemon(true);
+            this.retrier.start();
+        }
+        else {
+            this.retrier = null;
+        }
+    }
+
+    /**
+     * Routes the records the previous run left incomplete ahead of any new ones, without waiting for the targets.
+     */
+    private void replay() {
+        List<Journal.Entry> incomplete = journal.incomplete();
+        if (incomplete.isEmpty()) {
+            return;
+        }
+
+        LOGGER.info("Replaying <{}> journaled records", incomplete.size());
+        reroute(incomplete);
+    }
+
+    /**
+     * Runs on the retry thread, routes the records carried over since the previous retry again until closed.
+     */
+    private void retry() {
+        while (true) {
+            List<Journal.Entry> entries;
+            lock.lock();
+            try {
+                long nanos = TimeUnit.MILLISECONDS.toNanos(retryInterval);
+                while (!closed && nanos > 0) {
+                    nanos = stopped.awaitNanos(nanos);
+                }
+                if (closed) {
+                    // still journaled, replayed on the next start
+                    return;
+                }
+                entries = new ArrayList<>(carried);
+                carried.clear();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            finally {
+                lock.unlock();
+            }
+
+            if (entries.isEmpty()) {
+                continue;
+            }
+            LOGGER.info("Retrying <{}> journaled records", entries.size());
+            try {
+                reroute(entries);
+            }
+            catch (RuntimeException e) {
+                LOGGER.warn("Retrying journaled records failed, retrying in <{}> ms", retryInterval, e);
+                lock.lock();
+                try {
+                    carried.addAll(0, entries);
+                }
+                finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Routes journaled records again without waiting for the targets.
+     */
+    private void reroute(List<Journal.Entry> journaled) {
+        for (int start = 0; start < journaled.size(); start = start + REPLAY_BATCH) {
+            List<Journal.Entry> entries = journaled.subList(start, Math.min(start + REPLAY_BATCH, journaled.size()));
+            List<RoutingData> batch = new ArrayList<>(entries.size());
+            for (Journal.Entry entry : entries) {
+                batch.add(entry.routingData);
+            }
+            // a record with a target no longer configured fails alone, settled as dropped
+            List<CompletableFuture<Void>> routed = targetRouting.route(batch);
+            for (int i = 0; i < routed.size(); i++) {
+                settle(entries.get(i), routed.get(i));
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> route(RoutingData routingData) {
+        final Journal.Entry entry = journal.append(routingData);
+        CompletableFuture<Void> routed;
+        try {
+            routed = targetRouting.route(routingData);
+        }
+        catch (RuntimeException e) {
+            // not acknowledged, the client sends it again
+            journal.complete(entry);
+            throw e;
+        }
+        return acknowledge(entry, routed);
+    }
+
+    @Override
+    public List<CompletableFuture<Void>> route(List<RoutingData> routingDataList) {
+        List<Journal.Entry> entries = new ArrayList<>(routingDataList.size());
+        for (RoutingData routingData : routingDataList) {
+            entries.add(journal.append(routingData));
+        }
+        List<CompletableFuture<Void>> routed;
+        try {
+            routed = targetRouting.route(routingDataList);
+        }
+        catch (RuntimeException e) {
+            for (Journal.Entry entry : entries) {
+                journal.complete(entry);
+            }
+            throw e;
+        }
+        List<CompletableFuture<Void>> durable = new ArrayList<>(routed.size());
+        for (int i = 0; i < routed.size(); i++) {
+            durable.add(acknowledge(entries.get(i), routed.get(i)));
+        }
+        return durable;
+    }
+
+    /**
+     * Completes the journaled record once routed. A record for a target no longer configured can never be delivered and
+     * is dropped, any other failure carries the record over to be routed again on the next retry or start.
+     */
+    private void settle(Journal.Entry entry, CompletableFuture<Void> routed) {
+        routed.whenComplete((result, throwable) -> {
+            if (throwable == null) {
+                journal.complete(entry);
+                return;
+            }
+            Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+            if (cause instanceof IllegalArgumentException) {
+                LOGGER.error("Dropping journaled record, target no longer configured", cause);
+                journal.complete(entry);
+            }
+            else {
+                Journal.Entry carriedEntry = journal.carry(entry);
+                if (carriedEntry != null && retrier != null) {
+                    lock.lock();
+                    try {
+                        carried.add(carriedEntry);
+                    }
+                    finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return future acknowledging the record to the client
+     */
+    private CompletableFuture<Void> acknowledge(Journal.Entry entry, CompletableFuture<Void> routed) {
+        if (routed.isCompletedExceptionally()) {
+            // refused and not acknowledged, the client sends it again
+            journal.complete(entry);
+            return routed;
+        }
+        settle(entry, routed);
+        return entry.durable;
+    }
+
+    @Override
+    public void close() {
+        if (retrier != null) {
+            lock.lock();
+            try {
+                closed = true;
+                stopped.signal();
+            }
+            finally {
+                lock.unlock();
+            }
+            try {
+                retrier.join();
+            }
+            catch (InterruptedException e) {
+                LOGGER.warn("Interrupted while stopping journal retries", e);
+                Thread.currentThread().interrupt();
+            }
+        }
+        // completions of the drained outputs are written before the journal closes
+        targetRouting.close();
+        journal.close();
+    }
+}
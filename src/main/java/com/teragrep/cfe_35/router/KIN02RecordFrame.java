@@ -48,6 +48,7 @@ package com.teragrep.cfe_35.router;
 import com.teragrep.cfe_35.config.RoutingConfig;
 import com.teragrep.cfe_35.router.targets.DeadLetter;
 import com.teragrep.cfe_35.router.targets.Inspection;
+import com.teragrep.rlo_06.Fragment;
 import com.teragrep.rlo_06.RFC5424Frame;
 import com.teragrep.rlo_06.SDVector;
 import com.teragrep.rlo_11.key.AppName;
@@ -80,8 +81,8 @@ public class KIN02RecordFrame implements Validateable, Routeable {
             DeadLetter deadLetter,
             Inspection inspection
     ) {
-        this.accountVector = new SDVector("stream-processor@48577", "account");
-        this.logGroupVector = new SDVector("stream-processor@48577", "log-group");
+        this.accountVector = new SDVector(routingConfig.getKin02SdElementId(), "account");
+        this.logGroupVector = new SDVector(routingConfig.getKin02SdElementId(), "log-group");
         this.routingLookup = routingLookup;
         this.rfc5424Frame = rfc5424Frame;
         this.truncationLength = routingConfig.getKin02TruncationLength();
@@ -91,12 +92,35 @@ public class KIN02RecordFrame implements Validateable, Routeable {
 
     @Override
     public RoutingData route(byte[] data) {
+        Fragment account = rfc5424Frame.structuredData.getValue(accountVector);
+        Fragment logGroup = rfc5424Frame.structuredData.getValue(logGroupVector);
+        RewriteDecision rewriteDecision = routingLookup.kin02Decisions
+                .get(new LookupKey(account.toBytes(), logGroup.toBytes()), key -> decide(account.toString(), logGroup.toString()));
+
+        if (rewriteDecision.header == null) {
+            return new RoutingData(data, rewriteDecision.targets);
+        }
+
+        // replace hostname, appName with looked up values
+        byte[] modifiedData = ReplacementUtilityClass.splice(data, rewriteDecision.header);
+
+        // truncate if necessary
+        byte[] truncatedData = TruncationUtilityClass.truncate(modifiedData, truncationLength);
+        if (truncatedData.length != modifiedData.length) {
+            LOGGER
+                    .info(
+                            "Truncated size [{}] event to [{}] with account <[{}]> logGroup <[{}]>",
+                            modifiedData.length, truncatedData.length, account, logGroup
+                    );
+        }
+        return new RoutingData(truncatedData, rewriteDecision.targets);
+    }
+
+    private RewriteDecision decide(String account, String logGroup) {
         // default to dead-letter
-        RoutingData routingData = new RoutingData(data, deadLetter.asSingletonSet());
+        RewriteDecision rewriteDecision = new RewriteDecision(routingLookup.targetIds.of(deadLetter.asSingletonSet()));
         boolean routed = false;
 
-        String account = rfc5424Frame.structuredData.getValue(accountVector).toString();
-        String logGroup = rfc5424Frame.structuredData.getValue(logGroupVector).toString();
         LOGGER.debug("kin_02 routing with account <[{}]> logGroup <[{}]>", account, logGroup);
 
         Hostname hostname = routingLookup.getHostnameForAccount(account);
@@ -104,7 +128,6 @@ public class KIN02RecordFrame implements Validateable, Routeable {
 
         if (hostname.isStub) {
             // no mapping -> dead-letter
-            routingData = new RoutingData(data, deadLetter.asSingletonSet());
             LOGGER
                     .debug(
                             "routed hostname <[{}]> appName <[{}]> to <{}> due to hostname not routed. account <[{}]> logGroup <[{}]>",
@@ -114,7 +137,7 @@ public class KIN02RecordFrame implements Validateable, Routeable {
         }
         else if (!hostname.validate()) {
             // invalid -> inspection
-            routingData = new RoutingData(data, inspection.asSingletonSet());
+            rewriteDecision = new RewriteDecision(routingLookup.targetIds.of(inspection.asSingletonSet()));
             LOGGER
                     .debug(
                             "routed hostname <[{}]> appName <[{}]> to <{}> due to hostname not valid. account <[{}]> logGroup <[{}]>",
@@ -126,7 +149,6 @@ public class KIN02RecordFrame implements Validateable, Routeable {
         if (!routed) {
             if (appName.isStub) {
                 // no mapping -> dead-letter
-                routingData = new RoutingData(data, deadLetter.asSingletonSet());
                 LOGGER
                         .debug(
                                 "routed hostname <[{}]> appName <[{}]> to <{}> due to appName not routed. account <[{}]> logGroup <[{}]>",
@@ -148,9 +170,9 @@ public class KIN02RecordFrame implements Validateable, Routeable {
         }
 
         if (!routed) {
-            if (!appName.equals(appName.asCompatible())) {
+            AppName compatibleAppName = appName.asCompatible();
+            if (!appName.equals(compatibleAppName)) {
                 // appName changed, log about it
-                AppName compatibleAppName = appName.asCompatible();
                 LOGGER
                         .info(
                                 "changed appName from <[{}]> to compatibleAppName <[{}]>. account <[{}]> logGroup <[{}]>",
@@ -159,34 +181,27 @@ public class KIN02RecordFrame implements Validateable, Routeable {
                 appName = compatibleAppName;
             }
 
-            // replace hostname, appName with looked up values
-            byte[] modifiedData = ReplacementUtilityClass.replace(rfc5424Frame, hostname.hostname, appName.appName);
-
-            // truncate if necessary
-            byte[] truncatedData = TruncationUtilityClass.truncate(modifiedData, truncationLength);
-            if (truncatedData.length != modifiedData.length) {
-                LOGGER
-                        .info(
-                                "Truncated size [{}] event to [{}] with account <[{}]> logGroup <[{}]>",
-                                modifiedData.length, truncatedData.length, account, logGroup
-                        );
-            }
-
             Set<String> targets = routingLookup.getRoutes(hostname, appName);
-            routingData = new RoutingData(truncatedData, targets);
+            if (!targets.isEmpty()) {
+                rewriteDecision = new RewriteDecision(
+                        routingLookup.targetIds.of(targets),
+                        hostname.hostname,
+                        appName.appName
+                );
+            }
             routed = true;
         }
 
-        if (routingData.targets.isEmpty()) {
-            routingData = new RoutingData(data, deadLetter.asSingletonSet());
-        }
-
-        LOGGER.debug("routing set for account <[{}]> logGroup <[{}]>: <{}>", account, logGroup, routingData.targets);
+        LOGGER
+                .debug(
+                        "routing set for account <[{}]> logGroup <[{}]>: <{}>", account, logGroup,
+                        rewriteDecision.targets
+                );
         if (!routed) {
             throw new IllegalStateException("routing logic failure aborting");
         }
 
-        return routingData;
+        return rewriteDecision;
     }
 
     @Override
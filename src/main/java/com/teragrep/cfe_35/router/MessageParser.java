@@ -56,9 +56,10 @@ import com.teragrep.rlp_03.frame.delegate.FrameContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 import static com.codahale.metrics.MetricRegistry.name;
@@ -69,15 +70,20 @@ public class MessageParser implements Consumer<FrameContext>, AutoCloseable {
     private final TargetRouting targetRouting;
     private final Timer responseLatency;
     private final Timer lookupLatency;
+    private final Timer batchResponseLatency;
+    private final Histogram batchRecords;
     private final Counter records;
     private final Counter bytes;
     private final Counter connections;
     private final RFC5424Frame rfc5424Frame;
-    private TransportInfo transportInfo;
+    // reused for every record, parsing allocates no stream per record
+    private final PayloadInputStream payloadInputStream;
+    // set by the server thread, read by the routing thread once the record is published to it
+    private volatile TransportInfo transportInfo;
+    // routing thread of this connection, null if routed on the server thread
+    private final RoutingStage.Lane lane;
 
-    private final CFE07RecordFrame cfe07RecordFrame;
-    private final KIN02RecordFrame kin02RecordFrame;
-    private final CFE16RecordFrame cfe16RecordFrame;
+    private final RouteableRegistry routeableRegistry;
 
     final DeadLetter deadLetter;
     final Inspection inspection;
@@ -87,8 +93,22 @@ public class MessageParser implements Consumer<FrameContext>, AutoCloseable {
             TargetRouting targetRouting,
             MetricRegistry metricRegistry,
             RoutingConfig routingConfig
+    ) {
+        this(routingLookup, targetRouting, metricRegistry, routingConfig, null);
+    }
+
+    /**
+     * @param lane routing thread parsing and routing the records of this connection
+     */
+    MessageParser(
+            RoutingLookup routingLookup,
+            TargetRouting targetRouting,
+            MetricRegistry metricRegistry,
+            RoutingConfig routingConfig,
+            RoutingStage.Lane lane
     ) {
         this.targetRouting = targetRouting;
+        this.lane = lane;
         this.deadLetter = new DeadLetter();
         this.inspection = new Inspection();
 
@@ -96,6 +116,10 @@ public class MessageParser implements Consumer<FrameContext>, AutoCloseable {
                 .timer(name(MessageParser.class, "responseLatency"), () -> new Timer(new SlidingWindowReservoir(10000)));
         this.lookupLatency = metricRegistry
                 .timer(name(MessageParser.class, "lookupLatency"), () -> new Timer(new SlidingWindowReservoir(10000)));
+        this.batchResponseLatency = metricRegistry
+                .timer(name(MessageParser.class, "batchResponseLatency"), () -> new Timer(new SlidingWindowReservoir(10000)));
+        this.batchRecords = metricRegistry
+                .histogram(name(MessageParser.class, "batchRecords"), () -> new Histogram(new SlidingWindowReservoir(10000)));
 
         this.records = metricRegistry.counter(name(MessageParser.class, "records"));
         this.bytes = metricRegistry.counter(name(MessageParser.class, "bytes"));
@@ -104,52 +128,78 @@ public class MessageParser implements Consumer<FrameContext>, AutoCloseable {
         this.connections.inc();
 
         this.rfc5424Frame = new RFC5424Frame();
+        this.payloadInputStream = new PayloadInputStream();
 
-        this.cfe07RecordFrame = new CFE07RecordFrame(routingLookup, rfc5424Frame, deadLetter, inspection);
-        this.kin02RecordFrame = new KIN02RecordFrame(
-                routingLookup,
-                rfc5424Frame,
-                routingConfig,
-                deadLetter,
-                inspection
-        );
-        this.cfe16RecordFrame = new CFE16RecordFrame(
-                routingLookup,
+        this.routeableRegistry = new RouteableRegistry(
                 rfc5424Frame,
-                routingConfig,
-                deadLetter,
-                inspection
+                new RecordHandler(
+                        "cfe07",
+                        null,
+                        new String[0],
+                        new CFE07RecordFrame(routingLookup, rfc5424Frame, deadLetter, inspection),
+                        metricRegistry
+                )
         );
+        for (String recordFormat : routingConfig.getRecordFormats().split(",")) {
+            if (recordFormat.trim().isEmpty()) {
+                continue;
+            }
+            RecordKind recordKind = RecordKind.fromConfig(recordFormat.trim());
+            routeableRegistry
+                    .register(new RecordHandler(recordKind.name, recordKind.sdElementId(routingConfig), recordKind.sdParamKeys, recordKind.routeable(routingLookup, rfc5424Frame, routingConfig, deadLetter, inspection), metricRegistry));
+        }
 
     }
 
+    /**
+     * Routes the record and returns once every target has acknowledged it.
+     */
     @Override
     public void accept(FrameContext frameContext) {
+        route(frameContext).join();
+    }
+
+    /**
+     * Routes the record without waiting for the targets. The payload is copied, the frame may be released once this
+     * returns. With a routing stage the record is parsed and routed by the routing thread of the connection.
+     *
+     * @return future completing once every target has acknowledged the record
+     */
+    CompletableFuture<Void> route(FrameContext frameContext) {
         transportInfo = frameContext.establishedContext().socket().getTransportInfo();
         byte[] payload = frameContext.relpFrame().payload().toBytes();
-        try (final Timer.Context context = responseLatency.time()) {
+        if (lane != null) {
+            return lane.submit(this, payload);
+        }
+        return route(payload);
+    }
+
+    /**
+     * Parses and routes the copied record, on a single thread at a time.
+     *
+     * @see #route(FrameContext)
+     */
+    CompletableFuture<Void> route(byte[] payload) {
+        final Timer.Context context = responseLatency.time();
+        CompletableFuture<Void> routed;
+        try {
             // increment counters
             bytes.inc(payload.length);
             records.inc();
 
-            InputStream inputStream = new ByteArrayInputStream(payload);
-            rfc5424Frame.load(inputStream);
+            payloadInputStream.load(payload);
+            rfc5424Frame.load(payloadInputStream);
 
             if (rfc5424Frame.next()) {
                 final RoutingData routingData;
                 try (Timer.Context lookupContext = lookupLatency.time()) {
-                    if (kin02RecordFrame.validate()) {
-                        routingData = kin02RecordFrame.route(payload);
-                    }
-                    else if (cfe16RecordFrame.validate()) {
-                        routingData = cfe16RecordFrame.route(payload);
-                    }
-                    else {
-                        routingData = cfe07RecordFrame.route(payload);
-                    }
+                    routingData = lookup(payload);
                 }
 
-                targetRouting.route(routingData);
+                routed = targetRouting.route(routingData);
+            }
+            else {
+                routed = CompletableFuture.completedFuture(null);
             }
         }
         catch (Exception e) {
@@ -158,8 +208,73 @@ public class MessageParser implements Consumer<FrameContext>, AutoCloseable {
                             "route to <inspection> because exception while handling data from <{}>:<{}>",
                             transportInfo.getPeerAddress(), transportInfo.getPeerPort(), e
                     );
-            targetRouting.route(new RoutingData(payload, Collections.singleton(inspection.name)));
+            routed = targetRouting.route(new RoutingData(payload, Collections.singleton(inspection.name)));
+        }
+        routed.whenComplete((result, throwable) -> context.stop());
+        return routed;
+    }
+
+    /**
+     * Parses and routes the copied records as a batch, each target receiving its records of the batch together. Records
+     * are counted and timed once per batch. On a single thread at a time, like {@link #route(byte[])}.
+     *
+     * @return futures completing once every target has acknowledged the record, in the order of the payloads
+     */
+    List<CompletableFuture<Void>> route(List<byte[]> payloads) {
+        if (payloads.isEmpty()) {
+            return Collections.emptyList();
         }
+        final Timer.Context context = batchResponseLatency.time();
+
+        List<CompletableFuture<Void>> routed = new ArrayList<>(Collections.nCopies(payloads.size(), null));
+        List<RoutingData> batch = new ArrayList<>(payloads.size());
+        int[] positions = new int[payloads.size()];
+        long batchBytes = 0;
+        for (int i = 0; i < payloads.size(); i++) {
+            byte[] payload = payloads.get(i);
+            batchBytes = batchBytes + payload.length;
+            RoutingData routingData;
+            try {
+                payloadInputStream.load(payload);
+                rfc5424Frame.load(payloadInputStream);
+                if (!rfc5424Frame.next()) {
+                    routed.set(i, CompletableFuture.completedFuture(null));
+                    continue;
+                }
+                try (Timer.Context lookupContext = lookupLatency.time()) {
+                    routingData = lookup(payload);
+                }
+            }
+            catch (Exception e) {
+                LOGGER
+                        .error(
+                                "route to <inspection> because exception while handling data from <{}>:<{}>",
+                                transportInfo.getPeerAddress(), transportInfo.getPeerPort(), e
+                        );
+                routingData = new RoutingData(payload, Collections.singleton(inspection.name));
+            }
+            positions[batch.size()] = i;
+            batch.add(routingData);
+        }
+        bytes.inc(batchBytes);
+        records.inc(payloads.size());
+        batchRecords.update(payloads.size());
+
+        List<CompletableFuture<Void>> batchRouted = targetRouting.route(batch);
+        for (int i = 0; i < batchRouted.size(); i++) {
+            routed.set(positions[i], batchRouted.get(i));
+        }
+        CompletableFuture
+                .allOf(routed.toArray(new CompletableFuture<?>[0]))
+                .whenComplete((result, throwable) -> context.stop());
+        return routed;
+    }
+
+    /**
+     * @return targets of the record loaded into the frame
+     */
+    private RoutingData lookup(byte[] payload) {
+        return routeableRegistry.dispatch().route(payload);
     }
 
     @Override
@@ -167,7 +282,7 @@ public class MessageParser implements Consumer<FrameContext>, AutoCloseable {
         if (transportInfo != null) {
             LOGGER.info("closing connection for <{}:{}>", transportInfo.getPeerAddress(), transportInfo.getPeerPort());
         }
-        targetRouting.close();
+        // targetRouting is shared between connections and closed by the Router
         this.connections.dec();
     }
 }
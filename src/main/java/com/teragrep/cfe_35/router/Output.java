@@ -46,27 +46,103 @@
 package com.teragrep.cfe_35.router;
 
 import com.codahale.metrics.*;
-import com.teragrep.rlp_01.RelpBatch;
-import com.teragrep.rlp_01.RelpConnection;
+import com.teragrep.cfe_35.router.relp.RelpEventLoop;
+import com.teragrep.cfe_35.router.relp.RelpLink;
+import com.teragrep.cfe_35.router.relp.RelpPayload;
+import com.teragrep.cfe_35.router.relp.RelpRequest;
+import com.teragrep.cfe_35.router.relp.RelpResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.UnresolvedAddressException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
 import static com.codahale.metrics.MetricRegistry.name;
 
-// TODO unify, this is a copy from rlo_10 with FIXES
+/**
+ * RELP output to a single target, driven by a {@link RelpEventLoop} that may be shared by many outputs. Accepted
+ * records are queued until the loop collects them into batches, keeping up to windowSize transactions in flight, and
+ * acknowledgements are matched back to the records by txnr. The connection is established in the background and
+ * unacknowledged transactions are sent again once it is re-established. Nothing on the loop waits, so a slow target
+ * never stalls other targets nor the callers using {@link #send(byte[])}. With a rebind interval the connection is
+ * replaced after that many records, the new link is opened before the old one stops taking records and the old one is
+ * closed once its transactions are acknowledged. Rotations are transparent, counted as rotations and not as connects.
+ */
 public class Output implements Consumer<byte[]>, AutoCloseable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Output.class);
 
-    private final RelpConnection relpConnection;
+    private enum State {
+        DISCONNECTED, CONNECTING, OPENING, CONNECTED, CLOSING, CLOSED
+    }
+
+    private final String name;
     private final String relpAddress;
     private final int relpPort;
-    private final int reconnectInterval;
+    private final int connectionTimeout;
+    private final int readTimeout;
+    private final int writeTimeout;
+    // milliseconds to wait for the acknowledgements when closing
+    private final int closeTimeout;
+
+    // batching
+    private final int batchSize;
+    private final int batchBytes;
+    private final int batchLinger;
+
+    // records sent on a connection before it is replaced, 0 for never
+    private final int rebindInterval;
+
+    // records waiting to be sent
+    private final OutputQueue queue;
+    private final CircuitBreaker circuitBreaker;
+    private final ReconnectBackoff reconnectBackoff;
+
+    private final RelpEventLoop eventLoop;
+    private final boolean ownsEventLoop;
+
+    // accessed on the event loop only
+    private final int windowSize;
+    private final Map<Integer, PendingRecord> window;
+    private State state;
+    private RelpLink relpLink;
+    private SelectionKey selectionKey;
+    private int openTxnr;
+    private int closeTxnr;
+    private OutputBatch batch;
+    private RelpEventLoop.ScheduledTask reconnectTask;
+    private RelpEventLoop.ScheduledTask lingerTask;
+    private RelpEventLoop.ScheduledTask timeoutTask;
+    private long connectStarted;
+    private long lastRead;
+    private long lastWrite;
+    private boolean closing;
+    private int recordsSinceConnect;
+    // link replacing the current one, and the replaced link until its transactions are acknowledged
+    private Successor successor;
+    private Retiring retiring;
+    // unacknowledged records of a retiring link that failed while disconnected, resent once reconnected
+    private final List<PendingRecord> orphaned;
+
+    // read from other threads
+    private volatile boolean connected;
+    private volatile int pendingTransactions;
+    private final AtomicBoolean pollScheduled;
+    private final CompletableFuture<Void> closed;
 
     // metrics
     private final Counter records;
@@ -74,6 +150,11 @@ public class Output implements Consumer<byte[]>, AutoCloseable {
     private final Counter resends;
     private final Counter connects;
     private final Counter retriedConnects;
+    private final Counter circuitOpens;
+    private final Counter rotations;
+    private final Counter commits;
+    private final Histogram batchRecords;
+    private final Timer queueWait;
     private final Timer sendLatency;
     private final Timer connectLatency;
 
@@ -87,97 +168,1076 @@ public class Output implements Consumer<byte[]>, AutoCloseable {
             int reconnectInterval,
             MetricRegistry metricRegistry
     ) {
+        this(
+                name,
+                relpAddress,
+                relpPort,
+                connectionTimeout,
+                readTimeout,
+                writeTimeout,
+                // time to connect once more and to read the acknowledgements
+                connectionTimeout + readTimeout,
+                reconnectInterval,
+                1,
+                Integer.MAX_VALUE,
+                0,
+                1,
+                3,
+                30000,
+                metricRegistry
+        );
+    }
+
+    /**
+     * Output running on an event loop of its own, closed together with the output.
+     *
+     * @param closeTimeout               milliseconds {@link #close()} waits for the acknowledgements
+     * @param circuitBreakerFailures     consecutive failed connects opening the circuit, 0 for never
+     * @param circuitBreakerOpenDuration milliseconds the circuit stays open
+     */
+    Output(
+            String name,
+            String relpAddress,
+            int relpPort,
+            int connectionTimeout,
+            int readTimeout,
+            int writeTimeout,
+            int closeTimeout,
+            int reconnectInterval,
+            int batchSize,
+            int batchBytes,
+            int batchLinger,
+            int windowSize,
+            int circuitBreakerFailures,
+            int circuitBreakerOpenDuration,
+            MetricRegistry metricRegistry
+    ) {
+        this(
+                name,
+                relpAddress,
+                relpPort,
+                connectionTimeout,
+                readTimeout,
+                writeTimeout,
+                closeTimeout,
+                batchSize,
+                batchBytes,
+                batchLinger,
+                windowSize,
+                0,
+                new OutputQueue(name, Integer.MAX_VALUE, metricRegistry),
+                new CircuitBreaker(circuitBreakerFailures, circuitBreakerOpenDuration),
+                new ReconnectBackoff(reconnectInterval, reconnectInterval, -1, new Random()),
+                new RelpEventLoop("output-" + name),
+                true,
+                metricRegistry
+        );
+    }
+
+    /**
+     * @param closeTimeout     milliseconds {@link #close()} waits for the acknowledgements before giving up on the
+     *                         records still outstanding
+     * @param batchSize        maximum number of records written in one batch
+     * @param batchBytes       batch is written once it holds this many bytes of records
+     * @param batchLinger      milliseconds a record may wait for more records to join its batch
+     * @param windowSize       maximum number of transactions in flight, a batch larger than the window is sent alone
+     * @param rebindInterval   records sent on a connection before it is replaced by a new one, 0 for never
+     * @param queue            records waiting to be sent, closed when the output is closed
+     * @param circuitBreaker   decides when connecting is attempted, the queue treats the target as unreachable while
+     *                         the circuit is open
+     * @param reconnectBackoff delays between reconnect attempts, spending its retry budget opens the circuit
+     * @param eventLoop        loop running the connection, not closed by the output
+     */
+    Output(
+            String name,
+            String relpAddress,
+            int relpPort,
+            int connectionTimeout,
+            int readTimeout,
+            int writeTimeout,
+            int closeTimeout,
+            int batchSize,
+            int batchBytes,
+            int batchLinger,
+            int windowSize,
+            int rebindInterval,
+            OutputQueue queue,
+            CircuitBreaker circuitBreaker,
+            ReconnectBackoff reconnectBackoff,
+            RelpEventLoop eventLoop,
+            MetricRegistry metricRegistry
+    ) {
+        this(
+                name,
+                relpAddress,
+                relpPort,
+                connectionTimeout,
+                readTimeout,
+                writeTimeout,
+                closeTimeout,
+                batchSize,
+                batchBytes,
+                batchLinger,
+                windowSize,
+                rebindInterval,
+                queue,
+                circuitBreaker,
+                reconnectBackoff,
+                eventLoop,
+                false,
+                metricRegistry
+        );
+    }
+
+    private Output(
+            String name,
+            String relpAddress,
+            int relpPort,
+            int connectionTimeout,
+            int readTimeout,
+            int writeTimeout,
+            int closeTimeout,
+            int batchSize,
+            int batchBytes,
+            int batchLinger,
+            int windowSize,
+            int rebindInterval,
+            OutputQueue queue,
+            CircuitBreaker circuitBreaker,
+            ReconnectBackoff reconnectBackoff,
+            RelpEventLoop eventLoop,
+            boolean ownsEventLoop,
+            MetricRegistry metricRegistry
+    ) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1, was <" + batchSize + ">");
+        }
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be at least 1, was <" + windowSize + ">");
+        }
+        if (rebindInterval < 0) {
+            throw new IllegalArgumentException("rebindInterval must not be negative, was <" + rebindInterval + ">");
+        }
+        this.name = name;
         this.relpAddress = relpAddress;
         this.relpPort = relpPort;
-        this.reconnectInterval = reconnectInterval;
+        this.connectionTimeout = connectionTimeout;
+        this.readTimeout = readTimeout;
+        this.writeTimeout = writeTimeout;
+        this.closeTimeout = closeTimeout;
+
+        this.batchSize = batchSize;
+        this.batchBytes = batchBytes;
+        this.batchLinger = batchLinger;
+
+        this.rebindInterval = rebindInterval;
+
+        this.queue = queue;
+        this.circuitBreaker = circuitBreaker;
+        this.reconnectBackoff = reconnectBackoff;
 
-        this.relpConnection = new RelpConnection();
-        this.relpConnection.setConnectionTimeout(connectionTimeout);
-        this.relpConnection.setReadTimeout(readTimeout);
-        this.relpConnection.setWriteTimeout(writeTimeout);
+        this.eventLoop = eventLoop;
+        this.ownsEventLoop = ownsEventLoop;
+
+        this.windowSize = windowSize;
+        this.window = new LinkedHashMap<>();
+        this.state = State.DISCONNECTED;
+        this.closing = false;
+        this.recordsSinceConnect = 0;
+        this.orphaned = new ArrayList<>();
+
+        this.connected = false;
+        this.pendingTransactions = 0;
+        this.pollScheduled = new AtomicBoolean(false);
+        this.closed = new CompletableFuture<>();
 
         this.records = metricRegistry.counter(name(Output.class, "<[" + name + "]>", "records"));
         this.bytes = metricRegistry.counter(name(Output.class, "<[" + name + "]>", "bytes"));
         this.resends = metricRegistry.counter(name(Output.class, "<[" + name + "]>", "resends"));
         this.connects = metricRegistry.counter(name(Output.class, "<[" + name + "]>", "connects"));
         this.retriedConnects = metricRegistry.counter(name(Output.class, "<[" + name + "]>", "retriedConnects"));
+        this.circuitOpens = metricRegistry.counter(name(Output.class, "<[" + name + "]>", "circuitOpens"));
+        this.rotations = metricRegistry.counter(name(Output.class, "<[" + name + "]>", "rotations"));
+        this.commits = metricRegistry.counter(name(Output.class, "<[" + name + "]>", "commits"));
+        this.batchRecords = metricRegistry
+                .histogram(name(Output.class, "<[" + name + "]>", "batchRecords"), () -> new Histogram(new SlidingWindowReservoir(10000)));
+        this.queueWait = metricRegistry
+                .timer(name(Output.class, "<[" + name + "]>", "queueWait"), () -> new Timer(new SlidingWindowReservoir(10000)));
         this.sendLatency = metricRegistry
                 .timer(name(Output.class, "<[" + name + "]>", "sendLatency"), () -> new Timer(new SlidingWindowReservoir(10000)));
         this.connectLatency = metricRegistry
                 .timer(name(Output.class, "<[" + name + "]>", "connectLatency"), () -> new Timer(new SlidingWindowReservoir(10000)));
-        connect();
+        metricRegistry
+                .gauge(name(Output.class, "<[" + name + "]>", "pendingTransactions"), () -> () -> pendingTransactions);
+        metricRegistry.gauge(name(Output.class, "<[" + name + "]>", "circuitOpen"), () -> () -> isAvailable() ? 0 : 1);
+
+        // connected in the background, records queue until the link is up
+        queue.listen(this::recordsAdded);
+        eventLoop.execute(this::connect);
+    }
+
+    /**
+     * @return true while the link to the target is up
+     */
+    boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * @return false while the circuit is open
+     */
+    boolean isAvailable() {
+        return circuitBreaker.state() != CircuitBreaker.State.OPEN;
+    }
+
+    /**
+     * @return records queued or waiting for acknowledgement
+     */
+    int outstanding() {
+        return queue.depth() + pendingTransactions;
     }
 
+    /**
+     * Queues the record for the event loop of this output. Waits only if the queue is full and overflows by blocking.
+     *
+     * @return future completing once the record has been acknowledged by the target, or once the overflow policy of the
+     *         queue has taken care of it
+     * @throws IllegalStateException if the output is closed
+     */
+    public CompletableFuture<Void> send(byte[] syslogMessage) {
+        return queue.add(syslogMessage);
+    }
+
+    /**
+     * @see #send(byte[])
+     */
+    CompletableFuture<Void> send(RelpPayload payload) {
+        return queue.add(payload);
+    }
+
+    /**
+     * Queues the records together, the event loop is woken up once for all of them.
+     *
+     * @return futures of the records, in the order of payloads
+     * @see #send(byte[])
+     */
+    List<CompletableFuture<Void>> send(List<RelpPayload> payloads) {
+        return queue.addAll(payloads);
+    }
+
+    /**
+     * Returns once the record has been acknowledged by the target.
+     */
+    @Override
+    public void accept(byte[] syslogMessage) {
+        send(syslogMessage).join();
+    }
+
+    /**
+     * Called by the queue on the thread adding the record, polling is left to the event loop.
+     */
+    private void recordsAdded() {
+        if (pollScheduled.compareAndSet(false, true)) {
+            eventLoop.execute(() -> {
+                pollScheduled.set(false);
+                sendBatches();
+            });
+        }
+    }
+
+    /**
+     * Starts connecting as allowed by the circuit breaker.
+     */
     private void connect() {
-        boolean connected = false;
-        while (!connected) {
-            try (final Timer.Context context = connectLatency.time()) {
-                connected = this.relpConnection.connect(relpAddress, relpPort);
-                connects.inc();
+        reconnectTask = null;
+        if (state == State.CLOSED) {
+            return;
+        }
+        if (isDone()) {
+            finish();
+            return;
+        }
+        if (!circuitBreaker.allowAttempt()) {
+            reconnectTask = eventLoop.schedule(this::connect, circuitBreaker.openRemaining());
+            return;
+        }
+
+        connectStarted = System.nanoTime();
+        state = State.CONNECTING;
+        try {
+            final RelpLink link = new RelpLink(relpAddress, relpPort);
+            relpLink = link;
+            if (link.connect()) {
+                selectionKey = eventLoop.register(link.channel(), SelectionKey.OP_READ, key -> handle(key, link));
+                open();
             }
-            catch (IOException | TimeoutException e) {
-                LOGGER.error("Exception while connecting to <[{}]>:<[{}]>", relpAddress, relpPort, e);
+            else {
+                selectionKey = eventLoop.register(link.channel(), SelectionKey.OP_CONNECT, key -> handle(key, link));
+                armTimeout();
             }
-            catch (UnresolvedAddressException e) {
-                LOGGER.error("Can't resolve address of target <[{}]>", relpAddress, e);
+        }
+        catch (IOException e) {
+            LOGGER.error("Exception while connecting to <[{}]>:<[{}]>", relpAddress, relpPort, e);
+            failed();
+        }
+        catch (UnresolvedAddressException e) {
+            LOGGER.error("Can't resolve address of target <[{}]>", relpAddress, e);
+            failed();
+        }
+    }
+
+    /**
+     * Sends the open request once the socket is connected.
+     */
+    private void open() throws IOException {
+        state = State.OPENING;
+        RelpRequest open = relpLink.openRequest();
+        openTxnr = open.txnr();
+        lastRead = System.nanoTime();
+        write(Collections.singletonList(open));
+        armTimeout();
+    }
+
+    /**
+     * Session is open, the window is resent and the records queued meanwhile are sent.
+     */
+    private void opened() throws IOException {
+        state = State.CONNECTED;
+        connects.inc();
+        connectLatency.update(System.nanoTime() - connectStarted, TimeUnit.NANOSECONDS);
+        circuitBreaker.success();
+        reconnectBackoff.reset();
+        recordsSinceConnect = 0;
+
+        resendWindow();
+        connected = true;
+        queue.targetReachable(true);
+    }
+
+    /**
+     * Sends the unacknowledged transactions again with new txnrs.
+     */
+    private void resendWindow() throws IOException {
+        if (window.isEmpty() && orphaned.isEmpty()) {
+            return;
+        }
+        // orphans of a retired link are the oldest
+        List<PendingRecord> unacknowledged = new ArrayList<>(orphaned);
+        unacknowledged.addAll(window.values());
+        orphaned.clear();
+        window.clear();
+        resend(unacknowledged);
+    }
+
+    private void resend(List<PendingRecord> unacknowledged) throws IOException {
+        List<RelpRequest> requests = new ArrayList<>(unacknowledged.size());
+        for (PendingRecord pendingRecord : unacknowledged) {
+            RelpRequest request = relpLink.request("syslog", pendingRecord.payload);
+            window.put(request.txnr(), pendingRecord);
+            requests.add(request);
+        }
+        LOGGER.info("Resending <{}> transactions to <[{}]>:<[{}]>", requests.size(), relpAddress, relpPort);
+        lastRead = System.nanoTime();
+        write(requests);
+        resends.inc(requests.size());
+        updatePendingTransactions();
+    }
+
+    private void handle(SelectionKey key, RelpLink link) {
+        if (link != relpLink) {
+            if (successor != null && link == successor.link) {
+                handleSuccessor(key);
+            }
+            else if (retiring != null && link == retiring.link) {
+                handleRetiring(key);
+            }
+            // otherwise event of a link already torn down
+            return;
+        }
+        try {
+            if (key.isConnectable()) {
+                if (!link.finishConnect()) {
+                    return;
+                }
+                key.interestOps(SelectionKey.OP_READ);
+                open();
+            }
+            if (key.isValid() && key.isWritable()) {
+                flush();
+            }
+            if (key.isValid() && key.isReadable()) {
+                read();
             }
+            if (state == State.CONNECTED) {
+                sendBatches();
+                finishIfDone();
+            }
+        }
+        catch (IOException e) {
+            LOGGER.error("Exception on connection to <[{}]>:<[{}]>", relpAddress, relpPort, e);
+            failed();
+        }
+    }
 
-            if (!connected) {
-                try {
-                    Thread.sleep(reconnectInterval);
-                    retriedConnects.inc();
+    private void read() throws IOException {
+        List<RelpResponse> responses = relpLink.read();
+        if (!responses.isEmpty()) {
+            lastRead = System.nanoTime();
+        }
+
+        List<PendingRecord> acknowledged = new ArrayList<>(responses.size());
+        try {
+            for (RelpResponse response : responses) {
+                if (response.isServerClose()) {
+                    throw new EOFException("serverclose received from <[" + relpAddress + "]>:<[" + relpPort + "]>");
                 }
-                catch (InterruptedException e) {
-                    LOGGER
-                            .warn(
-                                    "Sleep interrupted while waiting for reconnectInterval <{}> on <[{}]>:<[{}]>",
-                                    reconnectInterval, relpAddress, relpPort, e
-                            );
+                if (state == State.OPENING && response.txnr() == openTxnr) {
+                    if (!response.isOk()) {
+                        throw new IOException(
+                                "open refused by <[" + relpAddress + "]>:<[" + relpPort + "]> with <" + response + ">"
+                        );
+                    }
+                    opened();
+                }
+                else if (state == State.CLOSING && response.txnr() == closeTxnr) {
+                    finish();
+                    return;
+                }
+                else {
+                    acknowledge(response, acknowledged);
                 }
             }
         }
+        finally {
+            complete(acknowledged);
+        }
+
+        if (relpLink.isEndOfStream()) {
+            throw new EOFException("connection closed by <[" + relpAddress + "]>:<[" + relpPort + "]>");
+        }
     }
 
-    @Override
-    public void accept(byte[] syslogMessage) {
-        try (final Timer.Context context = sendLatency.time()) {
-            RelpBatch batch = new RelpBatch();
-            batch.insert(syslogMessage);
+    private void acknowledge(RelpResponse response, List<PendingRecord> acknowledged) throws IOException {
+        PendingRecord pendingRecord = window.get(response.txnr());
+        if (pendingRecord == null) {
+            LOGGER.warn("Unexpected response <{}> from <[{}]>:<[{}]>", response, relpAddress, relpPort);
+            return;
+        }
+        if (!response.isOk()) {
+            // kept in the window, resent after reconnect
+            throw new IOException(
+                    "Negative acknowledgement <" + response + "> from <[" + relpAddress + "]>:<[" + relpPort + "]>"
+            );
+        }
+        window.remove(response.txnr());
+        updatePendingTransactions();
+        acknowledged.add(pendingRecord);
+    }
+
+    private void complete(List<PendingRecord> acknowledged) {
+        if (acknowledged.isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (PendingRecord pendingRecord : acknowledged) {
+            // metrics
+            records.inc();
+            bytes.inc(pendingRecord.record.length);
+            sendLatency.update(now - pendingRecord.enqueuedNanos, TimeUnit.NANOSECONDS);
+        }
+        // dependent actions run on the completion thread, not on the event loop
+        eventLoop.executeCompletion(() -> {
+            for (PendingRecord pendingRecord : acknowledged) {
+                pendingRecord.future.complete(null);
+            }
+        });
+    }
+
+    /**
+     * Collects the queued records into batches and writes them while the window has room and earlier writes have been
+     * taken by the socket.
+     */
+    private void sendBatches() {
+        if (state != State.CONNECTED) {
+            return;
+        }
+        try {
+            while (!relpLink.hasPendingWrites()) {
+                if (batch == null) {
+                    if (!(window.isEmpty() || window.size() + batchSize <= windowSize)) {
+                        return;
+                    }
+                    PendingRecord first = queue.poll();
+                    if (first == null) {
+                        return;
+                    }
+                    batch = new OutputBatch(batchSize, batchBytes, batchLinger);
+                    batch.add(first);
+                }
+                while (!batch.isFull()) {
+                    PendingRecord next = queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                if (!batch.isFull() && !closing && batch.lingerRemaining() > 0) {
+                    // records arriving meanwhile join the batch
+                    if (lingerTask == null) {
+                        lingerTask = eventLoop
+                                .schedule(this::lingered, TimeUnit.NANOSECONDS.toMillis(batch.lingerRemaining()) + 1);
+                    }
+                    return;
+                }
+                send(batch);
+            }
+        }
+        catch (IOException e) {
+            LOGGER.error("Exception while sending a batch to <[{}]>:<[{}]>", relpAddress, relpPort, e);
+            failed();
+        }
+    }
+
+    private void lingered() {
+        lingerTask = null;
+        if (state == State.CONNECTED && batch != null) {
+            try {
+                send(batch);
+            }
+            catch (IOException e) {
+                LOGGER.error("Exception while sending a batch to <[{}]>:<[{}]>", relpAddress, relpPort, e);
+                failed();
+                return;
+            }
+            sendBatches();
+        }
+    }
+
+    /**
+     * Moves the batch into the window and writes it. A failed write is resent from the window once reconnected.
+     */
+    private void send(OutputBatch outputBatch) throws IOException {
+        batch = null;
+        if (lingerTask != null) {
+            lingerTask.cancel();
+            lingerTask = null;
+        }
+
+        long now = System.nanoTime();
+        if (window.isEmpty()) {
+            lastRead = now;
+        }
+        List<RelpRequest> requests = new ArrayList<>(outputBatch.size());
+        for (PendingRecord pendingRecord : outputBatch.records()) {
+            RelpRequest request = relpLink.request("syslog", pendingRecord.payload);
+            window.put(request.txnr(), pendingRecord);
+            requests.add(request);
+            queueWait.update(now - pendingRecord.enqueuedNanos, TimeUnit.NANOSECONDS);
+        }
+        updatePendingTransactions();
+
+        write(requests);
+        commits.inc();
+        batchRecords.update(outputBatch.size());
+        armTimeout();
+
+        recordsSinceConnect = recordsSinceConnect + outputBatch.size();
+        if (rebindInterval > 0 && recordsSinceConnect >= rebindInterval) {
+            rotate();
+        }
+    }
 
-            boolean allSent = false;
-            while (!allSent) {
-                try {
-                    this.relpConnection.commit(batch);
+    private void updatePendingTransactions() {
+        int pending = window.size();
+        if (retiring != null) {
+            pending = pending + retiring.window.size();
+        }
+        pendingTransactions = pending;
+    }
 
-                    // metrics
-                    // NOTICE these if batch size changes
-                    records.inc(1);
-                    bytes.inc(syslogMessage.length);
+    /**
+     * Starts opening a link to replace the current one, records keep flowing on the current link meanwhile.
+     */
+    private void rotate() {
+        if (successor != null || retiring != null || closing) {
+            // the previous rotation is still in progress
+            return;
+        }
+        final RelpLink link;
+        try {
+            link = new RelpLink(relpAddress, relpPort);
+        }
+        catch (IOException e) {
+            LOGGER.warn("Could not open a new connection to <[{}]>:<[{}]>", relpAddress, relpPort, e);
+            recordsSinceConnect = 0;
+            return;
+        }
+        final Successor next = new Successor(link);
+        successor = next;
+        next.timeoutTask = eventLoop.schedule(() -> {
+            next.timeoutTask = null;
+            abandonSuccessor(next, new IOException("timed out while opening"));
+        }, (long) connectionTimeout + readTimeout);
+        try {
+            if (link.connect()) {
+                next.selectionKey = eventLoop.register(link.channel(), SelectionKey.OP_READ, key -> handle(key, link));
+                openSuccessor(next);
+            }
+            else {
+                next.selectionKey = eventLoop
+                        .register(link.channel(), SelectionKey.OP_CONNECT, key -> handle(key, link));
+            }
+        }
+        catch (IOException | UnresolvedAddressException e) {
+            abandonSuccessor(next, e);
+        }
+    }
 
+    private void openSuccessor(Successor next) throws IOException {
+        RelpRequest open = next.link.openRequest();
+        next.openTxnr = open.txnr();
+        next.link.enqueue(Collections.singletonList(open));
+        flush(next.link, next.selectionKey);
+    }
+
+    private void handleSuccessor(SelectionKey key) {
+        Successor next = successor;
+        try {
+            if (key.isConnectable()) {
+                if (!next.link.finishConnect()) {
+                    return;
+                }
+                key.interestOps(SelectionKey.OP_READ);
+                openSuccessor(next);
+            }
+            if (key.isValid() && key.isWritable()) {
+                flush(next.link, next.selectionKey);
+            }
+            if (key.isValid() && key.isReadable()) {
+                for (RelpResponse response : next.link.read()) {
+                    if (response.txnr() != next.openTxnr || !response.isOk()) {
+                        throw new IOException("open refused with <" + response + ">");
+                    }
+                    promote(next);
+                    return;
                 }
-                catch (IllegalStateException | IOException | TimeoutException e) {
-                    LOGGER.error("Exception while committing a batch to <[{}]>:<[{}]>", relpAddress, relpPort, e);
+                if (next.link.isEndOfStream()) {
+                    throw new EOFException("connection closed while opening");
+                }
+            }
+        }
+        catch (IOException e) {
+            abandonSuccessor(next, e);
+        }
+    }
+
+    /**
+     * Current link is kept and the rotation is tried again after another rebind interval.
+     */
+    private void abandonSuccessor(Successor next, Exception e) {
+        if (next != successor) {
+            return;
+        }
+        LOGGER
+                .warn(
+                        "Could not open a new connection to <[{}]>:<[{}]>, keeping the current one", relpAddress,
+                        relpPort, e
+                );
+        closeSuccessor();
+        recordsSinceConnect = 0;
+    }
+
+    private void closeSuccessor() {
+        if (successor == null) {
+            return;
+        }
+        if (successor.timeoutTask != null) {
+            successor.timeoutTask.cancel();
+        }
+        if (successor.selectionKey != null) {
+            successor.selectionKey.cancel();
+        }
+        successor.link.close();
+        successor = null;
+    }
+
+    /**
+     * New session is open, it takes the records from now on and the current link retires with its window.
+     */
+    private void promote(Successor next) throws IOException {
+        if (state != State.CONNECTED || closing) {
+            closeSuccessor();
+            return;
+        }
+        if (next.timeoutTask != null) {
+            next.timeoutTask.cancel();
+        }
+        if (timeoutTask != null) {
+            timeoutTask.cancel();
+            timeoutTask = null;
+        }
+        retiring = new Retiring(relpLink, selectionKey, new LinkedHashMap<>(window));
+        window.clear();
+        retiring.timeoutTask = eventLoop.schedule(this::checkRetiring, readTimeout);
+
+        relpLink = next.link;
+        selectionKey = next.selectionKey;
+        successor = null;
+        recordsSinceConnect = 0;
+        rotations.inc();
+        LOGGER.info("Rotated connection to <[{}]>:<[{}]>", relpAddress, relpPort);
+
+        try {
+            closeRetiringIfDrained();
+        }
+        catch (IOException e) {
+            retiringFailed(e);
+        }
+        sendBatches();
+    }
+
+    private void handleRetiring(SelectionKey key) {
+        Retiring old = retiring;
+        List<PendingRecord> acknowledged = new ArrayList<>();
+        try {
+            if (key.isValid() && key.isWritable()) {
+                flush(old.link, old.selectionKey);
+            }
+            if (key.isValid() && key.isReadable()) {
+                List<RelpResponse> responses = old.link.read();
+                if (!responses.isEmpty()) {
+                    old.lastRead = System.nanoTime();
                 }
-                // Check if everything has been sent, retry and reconnect if not.
-                if (!batch.verifyTransactionAll()) {
-                    batch.retryAllFailed();
-
-                    // metrics
-                    // NOTICE this if batch size changes
-                    resends.inc(1);
-                    relpConnection.tearDown();
-                    try {
-                        Thread.sleep(reconnectInterval);
+                for (RelpResponse response : responses) {
+                    if (response.txnr() == old.closeTxnr) {
+                        closeRetiring();
+                        return;
                     }
-                    catch (InterruptedException e) {
-                        throw new RuntimeException(e);
+                    PendingRecord pendingRecord = old.window.get(response.txnr());
+                    if (response.isServerClose() || pendingRecord == null || !response.isOk()) {
+                        throw new IOException("Unexpected response <" + response + "> on retiring connection");
                     }
-                    connect();
+                    old.window.remove(response.txnr());
+                    acknowledged.add(pendingRecord);
                 }
-                else {
-                    allSent = true;
+                if (old.link.isEndOfStream()) {
+                    throw new EOFException("retiring connection closed");
                 }
             }
+            closeRetiringIfDrained();
+        }
+        catch (IOException e) {
+            retiringFailed(e);
+        }
+        finally {
+            updatePendingTransactions();
+            complete(acknowledged);
+        }
+    }
+
+    /**
+     * Ends the session of the retiring link once its window is acknowledged.
+     */
+    private void closeRetiringIfDrained() throws IOException {
+        if (retiring == null || !retiring.window.isEmpty() || retiring.closeTxnr != -1) {
+            return;
+        }
+        RelpRequest close = retiring.link.closeRequest();
+        retiring.closeTxnr = close.txnr();
+        retiring.lastRead = System.nanoTime();
+        retiring.link.enqueue(Collections.singletonList(close));
+        flush(retiring.link, retiring.selectionKey);
+    }
+
+    private void checkRetiring() {
+        if (retiring == null) {
+            return;
+        }
+        retiring.timeoutTask = null;
+        long remaining = deadline(retiring.lastRead, readTimeout, System.nanoTime());
+        if (remaining == 0) {
+            retiringFailed(new IOException("timed out"));
+        }
+        else {
+            retiring.timeoutTask = eventLoop.schedule(this::checkRetiring, remaining);
+        }
+    }
+
+    /**
+     * Unacknowledged records of the retiring link are resent on the current link.
+     */
+    private void retiringFailed(IOException e) {
+        List<PendingRecord> unacknowledged = new ArrayList<>(retiring.window.values());
+        if (!unacknowledged.isEmpty()) {
+            LOGGER.warn("Retiring connection to <[{}]>:<[{}]> failed", relpAddress, relpPort, e);
+        }
+        closeRetiring();
+        if (unacknowledged.isEmpty()) {
+            return;
+        }
+        if (state == State.CONNECTED) {
+            try {
+                resend(unacknowledged);
+            }
+            catch (IOException resendException) {
+                // resent records are in the window already
+                LOGGER.error("Exception while resending to <[{}]>:<[{}]>", relpAddress, relpPort, resendException);
+                failed();
+            }
+        }
+        else {
+            orphaned.addAll(unacknowledged);
+        }
+    }
+
+    private void closeRetiring() {
+        if (retiring.timeoutTask != null) {
+            retiring.timeoutTask.cancel();
+        }
+        retiring.selectionKey.cancel();
+        retiring.link.close();
+        retiring = null;
+        updatePendingTransactions();
+        // closing may have been waiting for the retiring link
+        try {
+            if (state == State.CONNECTED || state == State.DISCONNECTED) {
+                finishIfDone();
+            }
+        }
+        catch (IOException e) {
+            LOGGER.error("Exception on connection to <[{}]>:<[{}]>", relpAddress, relpPort, e);
+            failed();
+        }
+    }
+
+    private void write(List<RelpRequest> requests) throws IOException {
+        if (!relpLink.hasPendingWrites()) {
+            lastWrite = System.nanoTime();
+        }
+        relpLink.enqueue(requests);
+        flush();
+    }
+
+    /**
+     * Writes what the socket takes, the rest is written once the channel is writable again.
+     */
+    private void flush() throws IOException {
+        if (relpLink.flush() > 0) {
+            lastWrite = System.nanoTime();
+        }
+        if (relpLink.hasPendingWrites()) {
+            selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            armTimeout();
+        }
+        else {
+            selectionKey.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Flush of a link being opened or retired, covered by their own timeouts.
+     */
+    private static void flush(RelpLink link, SelectionKey key) throws IOException {
+        link.flush();
+        if (link.hasPendingWrites()) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+        else {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Schedules the timeout check unless already scheduled.
+     */
+    private void armTimeout() {
+        if (timeoutTask == null) {
+            long remaining = timeoutRemaining();
+            if (remaining >= 0) {
+                timeoutTask = eventLoop.schedule(this::checkTimeout, remaining);
+            }
+        }
+    }
+
+    private void checkTimeout() {
+        timeoutTask = null;
+        long remaining = timeoutRemaining();
+        if (remaining == 0) {
+            LOGGER.error("Timed out in state <{}> on connection to <[{}]>:<[{}]>", state, relpAddress, relpPort);
+            failed();
+        }
+        else if (remaining > 0) {
+            timeoutTask = eventLoop.schedule(this::checkTimeout, remaining);
+        }
+    }
+
+    /**
+     * @return milliseconds until the connection times out, 0 if timed out already and -1 if nothing is awaited
+     */
+    private long timeoutRemaining() {
+        long now = System.nanoTime();
+        long remaining = -1;
+        if (state == State.CONNECTING) {
+            remaining = deadline(connectStarted, connectionTimeout, now);
+        }
+        else if (state == State.OPENING || state == State.CLOSING || (state == State.CONNECTED && !window.isEmpty())) {
+            remaining = deadline(lastRead, readTimeout, now);
+        }
+        if (relpLink != null && relpLink.hasPendingWrites()) {
+            long writeRemaining = deadline(lastWrite, writeTimeout, now);
+            remaining = remaining < 0 ? writeRemaining : Math.min(remaining, writeRemaining);
+        }
+        return remaining;
+    }
+
+    private static long deadline(long since, int timeout, long now) {
+        return Math.max(0, timeout - TimeUnit.NANOSECONDS.toMillis(now - since));
+    }
+
+    /**
+     * Tears down the link and reconnects later, or finishes if the session was being closed anyway.
+     */
+    private void failed() {
+        State failedState = state;
+        closeLink();
+        state = State.DISCONNECTED;
+        if (failedState == State.CLOSING) {
+            finish();
+            return;
+        }
+
+        if (circuitBreaker.failure()) {
+            circuitOpened(false);
+        }
+        if (isDone()) {
+            finish();
+            return;
+        }
+        scheduleReconnect();
+    }
+
+    private void circuitOpened(boolean tripped) {
+        if (tripped) {
+            LOGGER.warn("Retry budget of <[{}]>:<[{}]> spent", relpAddress, relpPort);
+        }
+        LOGGER.warn("Circuit of <[{}]>:<[{}]> opened", relpAddress, relpPort);
+        circuitOpens.inc();
+        queue.targetReachable(false);
+    }
+
+    /**
+     * Waits for the backoff delay, or for the circuit once the retry budget is spent.
+     */
+    private void scheduleReconnect() {
+        if (reconnectBackoff.isExhausted()) {
+            reconnectBackoff.reset();
+            if (circuitBreaker.trip()) {
+                circuitOpened(true);
+            }
+            reconnectTask = eventLoop.schedule(this::connect, circuitBreaker.openRemaining());
+            return;
+        }
+        reconnectTask = eventLoop.schedule(() -> {
+            retriedConnects.inc();
+            connect();
+        }, reconnectBackoff.nextDelay());
+    }
+
+    private void closeLink() {
+        connected = false;
+        closeSuccessor();
+        if (timeoutTask != null) {
+            timeoutTask.cancel();
+            timeoutTask = null;
+        }
+        if (selectionKey != null) {
+            selectionKey.cancel();
+            selectionKey = null;
+        }
+        if (relpLink != null) {
+            relpLink.close();
+            relpLink = null;
+        }
+    }
+
+    /**
+     * @return true once closing and every accepted record has been acknowledged
+     */
+    private boolean isDone() {
+        return closing && batch == null && window.isEmpty() && retiring == null && orphaned.isEmpty()
+                && queue.isDrained();
+    }
+
+    /**
+     * Ends the session once done, gracefully if connected.
+     */
+    private void finishIfDone() throws IOException {
+        if (!isDone()) {
+            return;
+        }
+        if (state == State.CONNECTED && !relpLink.hasPendingWrites()) {
+            state = State.CLOSING;
+            RelpRequest close = relpLink.closeRequest();
+            closeTxnr = close.txnr();
+            lastRead = System.nanoTime();
+            write(Collections.singletonList(close));
+            armTimeout();
+        }
+        else if (state == State.DISCONNECTED) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        if (reconnectTask != null) {
+            reconnectTask.cancel();
+            reconnectTask = null;
+        }
+        if (lingerTask != null) {
+            lingerTask.cancel();
+            lingerTask = null;
+        }
+        closeLink();
+        if (retiring != null) {
+            if (retiring.timeoutTask != null) {
+                retiring.timeoutTask.cancel();
+            }
+            retiring.selectionKey.cancel();
+            retiring.link.close();
+            retiring = null;
+        }
+        state = State.CLOSED;
+        // after the completions of the acknowledged and abandoned records
+        eventLoop.executeCompletion(() -> closed.complete(null));
+    }
+
+    private static final class Successor {
+
+        private final RelpLink link;
+        private SelectionKey selectionKey;
+        private int openTxnr;
+        private RelpEventLoop.ScheduledTask timeoutTask;
+
+        private Successor(RelpLink link) {
+            this.link = link;
+        }
+    }
+
+    private static final class Retiring {
+
+        private final RelpLink link;
+        private final SelectionKey selectionKey;
+        private final Map<Integer, PendingRecord> window;
+        private int closeTxnr;
+        private long lastRead;
+        private RelpEventLoop.ScheduledTask timeoutTask;
+
+        private Retiring(RelpLink link, SelectionKey selectionKey, Map<Integer, PendingRecord> window) {
+            this.link = link;
+            this.selectionKey = selectionKey;
+            this.window = window;
+            this.closeTxnr = -1;
+            this.lastRead = System.nanoTime();
         }
     }
 
@@ -186,15 +1246,78 @@ public class Output implements Consumer<byte[]>, AutoCloseable {
         return "Output{" + "relpAddress='" + relpAddress + '\'' + ", relpPort=" + relpPort + '}';
     }
 
+    /**
+     * Gives up on the records not yet acknowledged once the close timeout has passed, the queue spills or fails them.
+     */
+    private void abandon() {
+        if (state == State.CLOSED) {
+            return;
+        }
+        // oldest first, as they would have been resent
+        List<PendingRecord> unacknowledged = new ArrayList<>(orphaned);
+        if (retiring != null) {
+            unacknowledged.addAll(retiring.window.values());
+        }
+        unacknowledged.addAll(window.values());
+        if (batch != null) {
+            unacknowledged.addAll(batch.records());
+        }
+        PendingRecord queued;
+        while ((queued = queue.poll()) != null) {
+            unacknowledged.add(queued);
+        }
+        LOGGER
+                .warn(
+                        "Closing <[{}]>:<[{}]> timed out after <{}> ms, abandoning <{}> records", relpAddress, relpPort,
+                        closeTimeout, unacknowledged.size()
+                );
+        orphaned.clear();
+        window.clear();
+        batch = null;
+        updatePendingTransactions();
+        // spilled before close() returns and the queue closes its spill store, the completion of closed follows
+        eventLoop.executeCompletion(() -> queue.abandon(unacknowledged));
+        finish();
+    }
+
+    /**
+     * Stops accepting records, waits until all accepted records are acknowledged and ends the RELP session. Once the
+     * close timeout has passed the link is torn down and the records still outstanding are spilled or failed by the
+     * queue.
+     */
     public void close() {
+        queue.shutdown();
+        eventLoop.execute(() -> {
+            closing = true;
+            sendBatches();
+            try {
+                finishIfDone();
+            }
+            catch (IOException e) {
+                LOGGER.warn("Exception while disconnecting from <[{}]>:<[{}]>", relpAddress, relpPort, e);
+                finish();
+            }
+        });
         try {
-            relpConnection.disconnect();
+            closed.get(closeTimeout, TimeUnit.MILLISECONDS);
         }
-        catch (IOException | TimeoutException e) {
-            LOGGER.warn("Exception while disconnecting from <[{}]>:<[{}]>", relpAddress, relpPort, e);
+        catch (TimeoutException e) {
+            eventLoop.execute(this::abandon);
         }
-        finally {
-            relpConnection.tearDown();
+        catch (InterruptedException e) {
+            LOGGER.warn("Interrupted while closing <[{}]>:<[{}]>", relpAddress, relpPort, e);
+            Thread.currentThread().interrupt();
+            eventLoop.execute(this::abandon);
+        }
+        catch (ExecutionException e) {
+            // never completed exceptionally
+            throw new IllegalStateException(e);
+        }
+        closed.join();
+        // nothing takes records anymore
+        queue.close();
+        if (ownsEventLoop) {
+            eventLoop.close();
         }
     }
 }
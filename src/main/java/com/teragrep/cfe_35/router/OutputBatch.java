@@ -0,0 +1,115 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records collected by the sender of an {@link Output} for a single write.
+ */
+final class OutputBatch {
+
+    private final int maxRecords;
+    private final long maxBytes;
+    private final long lingerNanos;
+
+    private final List<PendingRecord> records;
+    private long bytes;
+
+    OutputBatch(int maxRecords, long maxBytes, long lingerMillis) {
+        this.maxRecords = maxRecords;
+        this.maxBytes = maxBytes;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.records = new ArrayList<>();
+        this.bytes = 0;
+    }
+
+    /**
+     * @throws IllegalStateException if the batch is full, records arriving meanwhile belong to the next batch
+     */
+    void add(PendingRecord pendingRecord) {
+        if (isFull()) {
+            throw new IllegalStateException(
+                    "batch is sealed at <" + records.size() + "> records and <" + bytes + "> bytes"
+            );
+        }
+        records.add(pendingRecord);
+        bytes = bytes + pendingRecord.record.length;
+    }
+
+    boolean isFull() {
+        return records.size() >= maxRecords || bytes >= maxBytes;
+    }
+
+    /**
+     * @return nanoseconds until the first record of this batch has lingered long enough, zero or negative if it already
+     *         has
+     */
+    long lingerRemaining() {
+        if (records.isEmpty()) {
+            return lingerNanos;
+        }
+        return lingerNanos - (System.nanoTime() - records.get(0).enqueuedNanos);
+    }
+
+    List<PendingRecord> records() {
+        return records;
+    }
+
+    boolean isEmpty() {
+        return records.isEmpty();
+    }
+
+    int size() {
+        return records.size();
+    }
+
+    long bytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import com.teragrep.cfe_35.router.relp.RelpPayload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Outputs to the endpoints of a single target. Each record is sent to one of the endpoints, picked by the
+ * {@link BalancingPolicy} of the target among the primary endpoints whose circuit is not open. Backup endpoints are
+ * used only while the circuits of all the primary endpoints are open, and if the circuits of the backups are open too
+ * the records go to the primary endpoints, where the overflow policy of the target applies to them.
+ */
+final class OutputGroup implements AutoCloseable {
+
+    private final List<StripedOutput> outputs;
+    private final BalancingPolicy balancingPolicy;
+    private final int[] weights;
+    private final boolean[] backups;
+
+    // smooth weighted round-robin state, and the start of the least outstanding scan so that ties rotate
+    private final int[] currentWeights;
+    private int next;
+
+    /**
+     * @param outputs one per endpoint
+     * @param weights share of the records of each endpoint, in the order of outputs
+     * @param backups whether each endpoint is a backup, in the order of outputs
+     */
+    OutputGroup(List<StripedOutput> outputs, BalancingPolicy balancingPolicy, int[] weights, boolean[] backups) {
+        if (outputs.size() != weights.length || outputs.size() != backups.length) {
+            throw new IllegalArgumentException(
+                    "<" + weights.length + "> weights and <" + backups.length + "> backup flags for <" + outputs.size()
+                            + "> endpoints"
+            );
+        }
+        boolean hasPrimary = false;
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i] < 1) {
+                throw new IllegalArgumentException("weight must be at least 1, was <" + weights[i] + ">");
+            }
+            hasPrimary |= !backups[i];
+        }
+        if (!hasPrimary) {
+            throw new IllegalArgumentException("no primary endpoints");
+        }
+        this.outputs = outputs;
+        this.balancingPolicy = balancingPolicy;
+        this.weights = weights.clone();
+        this.backups = backups.clone();
+        this.currentWeights = new int[weights.length];
+    }
+
+    /**
+     * @see StripedOutput#send(RelpPayload)
+     */
+    CompletableFuture<Void> send(RelpPayload payload) {
+        return select().send(payload);
+    }
+
+    /**
+     * Records of a single endpoint are sent together, across endpoints they are balanced one by one.
+     *
+     * @see StripedOutput#send(List)
+     */
+    List<CompletableFuture<Void>> send(List<RelpPayload> payloads) {
+        if (outputs.size() == 1) {
+            return outputs.get(0).send(payloads);
+        }
+        List<CompletableFuture<Void>> futures = new ArrayList<>(payloads.size());
+        for (RelpPayload payload : payloads) {
+            futures.add(send(payload));
+        }
+        return futures;
+    }
+
+    private StripedOutput select() {
+        if (outputs.size() == 1) {
+            return outputs.get(0);
+        }
+        // availability is taken once, circuits may open and close meanwhile
+        boolean[] candidates = candidates();
+        synchronized (this) {
+            switch (balancingPolicy) {
+                case WEIGHTED_ROUND_ROBIN:
+                    return outputs.get(nextWeighted(candidates));
+                case LEAST_OUTSTANDING:
+                    return outputs.get(leastOutstanding(candidates));
+                default:
+                    throw new IllegalStateException("unknown balancing policy <[" + balancingPolicy + "]>");
+            }
+        }
+    }
+
+    /**
+     * @return available primary endpoints, or if none the available backups, or if none all the primary endpoints
+     */
+    private boolean[] candidates() {
+        boolean[] availablePrimaries = new boolean[outputs.size()];
+        boolean[] availableBackups = new boolean[outputs.size()];
+        boolean anyPrimary = false;
+        boolean anyBackup = false;
+        for (int i = 0; i < outputs.size(); i++) {
+            if (outputs.get(i).isAvailable()) {
+                if (backups[i]) {
+                    availableBackups[i] = true;
+                    anyBackup = true;
+                }
+                else {
+                    availablePrimaries[i] = true;
+                    anyPrimary = true;
+                }
+            }
+        }
+        if (anyPrimary) {
+            return availablePrimaries;
+        }
+        if (anyBackup) {
+            return availableBackups;
+        }
+        boolean[] primaries = new boolean[outputs.size()];
+        for (int i = 0; i < outputs.size(); i++) {
+            primaries[i] = !backups[i];
+        }
+        return primaries;
+    }
+
+    private int nextWeighted(boolean[] candidates) {
+        int selected = -1;
+        int totalWeight = 0;
+        for (int i = 0; i < currentWeights.length; i++) {
+            if (!candidates[i]) {
+                continue;
+            }
+            currentWeights[i] += weights[i];
+            totalWeight += weights[i];
+            if (selected == -1 || currentWeights[i] > currentWeights[selected]) {
+                selected = i;
+            }
+        }
+        currentWeights[selected] -= totalWeight;
+        return selected;
+    }
+
+    private int leastOutstanding(boolean[] candidates) {
+        int start = next;
+        next = (next + 1) % outputs.size();
+
+        int selected = -1;
+        long selectedLoad = 0;
+        for (int k = 0; k < outputs.size(); k++) {
+            int i = (start + k) % outputs.size();
+            if (!candidates[i]) {
+                continue;
+            }
+            long load = outputs.get(i).outstanding() + 1L;
+            // load / weight compared without division
+            if (selected == -1 || load * weights[selected] < selectedLoad * weights[i]) {
+                selected = i;
+                selectedLoad = load;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * @return true if any of the endpoints is connected
+     */
+    boolean isConnected() {
+        for (StripedOutput output : outputs) {
+            if (output.isConnected()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void close() {
+        for (StripedOutput output : outputs) {
+            output.close();
+        }
+    }
+}
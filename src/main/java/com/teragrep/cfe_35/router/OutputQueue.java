@@ -0,0 +1,562 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.teragrep.cfe_35.router.relp.RelpPayload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Bounded queue of the records waiting to be sent by an {@link Output}. Once capacity is reached the
+ * {@link OverflowPolicy} decides what happens to the record. Unless the policy is {@link OverflowPolicy#BLOCK} the
+ * policy applies also while the target is unreachable, and with {@link OverflowPolicy#SPILL} callers wait once the
+ * spill store is full. Spilled records are taken only after the records in memory, and while anything is spilled new
+ * records are spilled too, so the target receives the records in the order they were added. With
+ * {@link FsyncPolicy#INTERVAL} a thread of the queue forces the spill store every interval.
+ */
+final class OutputQueue implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OutputQueue.class);
+
+    private final String name;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final OutputGroup deadLetter;
+    private final SpillStore spillStore;
+
+    private final ArrayDeque<PendingRecord> records;
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final Condition notFull;
+    private final Condition storeClosing;
+    private boolean closed;
+    private boolean storeClosed;
+    private boolean targetReachable;
+    private final Thread syncer;
+    // notified outside the lock whenever a record is added
+    private volatile Runnable listener;
+
+    // metrics
+    private final Counter overflows;
+    private final Counter divertedRecords;
+    private final Counter spilledRecords;
+
+    /**
+     * Queue blocking the callers once capacity is reached.
+     */
+    OutputQueue(String name, int capacity, MetricRegistry metricRegistry) {
+        this(name, capacity, OverflowPolicy.BLOCK, null, null, metricRegistry);
+    }
+
+    /**
+     * @param deadLetter outputs receiving the overflow with {@link OverflowPolicy#DEAD_LETTER}
+     * @param spillStore store receiving the overflow with {@link OverflowPolicy#SPILL}
+     */
+    OutputQueue(
+            String name,
+            int capacity,
+            OverflowPolicy overflowPolicy,
+            OutputGroup deadLetter,
+            SpillStore spillStore,
+            MetricRegistry metricRegistry
+    ) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1, was <" + capacity + ">");
+        }
+        if (overflowPolicy == OverflowPolicy.DEAD_LETTER && deadLetter == null) {
+            throw new IllegalArgumentException("no dead-letter output for <[" + name + "]>");
+        }
+        if (overflowPolicy == OverflowPolicy.SPILL && spillStore == null) {
+            throw new IllegalArgumentException("no spill store for <[" + name + "]>");
+        }
+        this.name = name;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.deadLetter = deadLetter;
+        this.spillStore = spillStore;
+
+        this.records = new ArrayDeque<>();
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+        this.notFull = lock.newCondition();
+        this.storeClosing = lock.newCondition();
+        this.closed = false;
+        this.storeClosed = false;
+        this.targetReachable = true;
+
+        this.overflows = metricRegistry.counter(name(OutputQueue.class, "<[" + name + "]>", "overflows"));
+        this.divertedRecords = metricRegistry.counter(name(OutputQueue.class, "<[" + name + "]>", "divertedRecords"));
+        this.spilledRecords = metricRegistry.counter(name(OutputQueue.class, "<[" + name + "]>", "spilledRecords"));
+        metricRegistry.gauge(name(OutputQueue.class, "<[" + name + "]>", "depth"), () -> this::depth);
+        metricRegistry
+                .gauge(name(OutputQueue.class, "<[" + name + "]>", "oldestRecordAge"), () -> this::oldestRecordAge);
+        metricRegistry.gauge(name(OutputQueue.class, "<[" + name + "]>", "spilledBytes"), () -> this::spilledBytes);
+        metricRegistry.gauge(name(OutputQueue.class, "<[" + name + "]>", "spillDiskBytes"), () -> this::spillDiskBytes);
+
+        if (spillStore != null && spillStore.fsyncPolicy() == FsyncPolicy.INTERVAL) {
+            this.syncer = new Thread(this::sync, "spill-" + name);
+            this.syncer.setDaemon(true);
+            this.syncer.start();
+        }
+        else {
+            this.syncer = null;
+        }
+    }
+
+    /**
+     * Forces the spill store every fsync interval until the store is closed.
+     */
+    private void sync() {
+        long interval = TimeUnit.MILLISECONDS.toNanos(spillStore.fsyncInterval());
+        lock.lock();
+        try {
+            long remaining = interval;
+            while (!storeClosed) {
+                if (remaining > 0) {
+                    remaining = storeClosing.awaitNanos(remaining);
+                    continue;
+                }
+                spillStore.sync();
+                remaining = interval;
+            }
+        }
+        catch (InterruptedException e) {
+            LOGGER.warn("Interrupted while syncing spill store of <[{}]>", name, e);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return future completing once the target has acknowledged the record, or once the overflow policy has taken care
+     *         of it
+     * @throws IllegalStateException if the queue is closed
+     */
+    CompletableFuture<Void> add(byte[] record) {
+        return add(new RelpPayload(record));
+    }
+
+    /**
+     * @see #add(byte[])
+     */
+    CompletableFuture<Void> add(RelpPayload payload) {
+        CompletableFuture<Void> future = enqueue(payload);
+        Runnable currentListener = listener;
+        if (currentListener != null) {
+            currentListener.run();
+        }
+        return future;
+    }
+
+    /**
+     * Adds the records taking the lock and notifying the listener once while they fit in memory, the rest are added one
+     * by one as by {@link #add(RelpPayload)} with the overflow policy applying to them.
+     *
+     * @return futures of the records, in the order of payloads
+     * @throws IllegalStateException if the queue is closed
+     */
+    List<CompletableFuture<Void>> addAll(List<RelpPayload> payloads) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>(payloads.size());
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Output <[" + name + "]> is closed");
+            }
+            boolean overflowsUnreachable = overflowPolicy != OverflowPolicy.BLOCK && !targetReachable;
+            while (
+                futures.size() < payloads.size() && records.size() < capacity && !isSpilling() && !overflowsUnreachable
+            ) {
+                PendingRecord pendingRecord = new PendingRecord(payloads.get(futures.size()));
+                records.add(pendingRecord);
+                futures.add(pendingRecord.future);
+            }
+            if (!futures.isEmpty()) {
+                notEmpty.signal();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+        // before overflowing, blocking waits for the output to take the records added so far
+        Runnable currentListener = listener;
+        if (!futures.isEmpty() && currentListener != null) {
+            currentListener.run();
+        }
+        while (futures.size() < payloads.size()) {
+            futures.add(add(payloads.get(futures.size())));
+        }
+        return futures;
+    }
+
+    private CompletableFuture<Void> enqueue(RelpPayload payload) {
+        final PendingRecord pendingRecord = new PendingRecord(payload);
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Output <[" + name + "]> is closed");
+            }
+            boolean overflowsUnreachable = overflowPolicy != OverflowPolicy.BLOCK && !targetReachable;
+            if (records.size() < capacity && !isSpilling() && !overflowsUnreachable) {
+                records.add(pendingRecord);
+                notEmpty.signal();
+                return pendingRecord.future;
+            }
+
+            if (records.size() >= capacity) {
+                overflows.inc();
+            }
+            switch (overflowPolicy) {
+                case BLOCK:
+                    while (records.size() >= capacity && !closed) {
+                        notFull.awaitUninterruptibly();
+                    }
+                    if (closed) {
+                        throw new IllegalStateException("Output <[" + name + "]> is closed");
+                    }
+                    records.add(pendingRecord);
+                    notEmpty.signal();
+                    return pendingRecord.future;
+                case SPILL:
+                    while (!spillStore.hasCapacity(pendingRecord.record.length) && !closed) {
+                        // disk usage cap reached, space is freed as the sender drains segments
+                        notFull.awaitUninterruptibly();
+                    }
+                    if (closed) {
+                        throw new IllegalStateException("Output <[" + name + "]> is closed");
+                    }
+                    return spill(pendingRecord);
+                default:
+                    // dead-letter is sent to outside the lock
+                    break;
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+
+        divertedRecords.inc();
+        return deadLetter.send(payload);
+    }
+
+    private boolean isSpilling() {
+        return spillStore != null && !spillStore.isEmpty();
+    }
+
+    /**
+     * Sets the listener notified of added records, the output polls the queue once notified.
+     */
+    void listen(Runnable listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Called by the output as its circuit opens and once it is connected again.
+     */
+    void targetReachable(boolean reachable) {
+        lock.lock();
+        try {
+            targetReachable = reachable;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private CompletableFuture<Void> spill(PendingRecord pendingRecord) {
+        try {
+            spillStore.write(pendingRecord.record);
+            spilledRecords.inc();
+            notEmpty.signal();
+            // spilled record is in custody of the spill store
+            pendingRecord.future.complete(null);
+        }
+        catch (IOException e) {
+            LOGGER.error("Exception while spilling a record of <[{}]>", name, e);
+            pendingRecord.future.completeExceptionally(e);
+        }
+        return pendingRecord.future;
+    }
+
+    /**
+     * @return the oldest record, null if there is none right now
+     */
+    PendingRecord poll() {
+        try {
+            return poll(0, TimeUnit.NANOSECONDS);
+        }
+        catch (InterruptedException e) {
+            // a zero timeout never waits
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return true once the queue is closed and the records in memory are taken
+     */
+    boolean isDrained() {
+        lock.lock();
+        try {
+            return closed && records.isEmpty();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the oldest record, null if none arrives within the timeout or once the queue is closed and the records in
+     *         memory are taken. Spilled records stay on disk when closed.
+     */
+    PendingRecord poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (true) {
+                PendingRecord pendingRecord = records.poll();
+                if (pendingRecord != null) {
+                    notFull.signal();
+                    return pendingRecord;
+                }
+                if (closed) {
+                    return null;
+                }
+                if (isSpilling()) {
+                    pendingRecord = unspill();
+                    if (pendingRecord != null) {
+                        return pendingRecord;
+                    }
+                }
+                if (remaining <= 0) {
+                    return null;
+                }
+                remaining = notEmpty.awaitNanos(remaining);
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes back the records the output gave up on while closing. With {@link OverflowPolicy#SPILL} they are spilled to
+     * be sent on the next start, otherwise their futures fail. Records read from the spill store stay there.
+     */
+    void abandon(List<PendingRecord> pendingRecords) {
+        lock.lock();
+        try {
+            for (PendingRecord pendingRecord : pendingRecords) {
+                if (overflowPolicy == OverflowPolicy.SPILL && !storeClosed && !pendingRecord.spilled) {
+                    spill(pendingRecord);
+                }
+                else {
+                    pendingRecord.future
+                            .completeExceptionally(
+                                    new IOException("Output <[" + name + "]> closed before the record was acknowledged")
+                            );
+                }
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private PendingRecord unspill() {
+        try {
+            final SpillStore.SpilledRecord spilledRecord = spillStore.read();
+            PendingRecord pendingRecord = new PendingRecord(new RelpPayload(spilledRecord.record), true);
+            // stays in the spill store until acknowledged by the target
+            pendingRecord.future.thenRun(() -> commit(spilledRecord));
+            return pendingRecord;
+        }
+        catch (IOException e) {
+            LOGGER.error("Exception while reading spill store of <[{}]>", name, e);
+            return null;
+        }
+    }
+
+    private void commit(SpillStore.SpilledRecord spilledRecord) {
+        lock.lock();
+        try {
+            if (storeClosed) {
+                // read again on the next start
+                return;
+            }
+            spillStore.commit(spilledRecord);
+            // committing may have freed a segment
+            notFull.signalAll();
+        }
+        catch (IOException e) {
+            LOGGER.error("Exception while committing spill store of <[{}]>", name, e);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    int depth() {
+        lock.lock();
+        try {
+            return records.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return milliseconds the oldest record in memory has been queued
+     */
+    private long oldestRecordAge() {
+        lock.lock();
+        try {
+            PendingRecord oldest = records.peek();
+            if (oldest == null) {
+                return 0;
+            }
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.enqueuedNanos);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private long spilledBytes() {
+        lock.lock();
+        try {
+            if (spillStore == null) {
+                return 0;
+            }
+            return spillStore.bytes();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private long spillDiskBytes() {
+        lock.lock();
+        try {
+            if (spillStore == null) {
+                return 0;
+            }
+            return spillStore.diskBytes();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting records, the records in memory can still be taken. Callers waiting for space fail.
+     */
+    void shutdown() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting records and closes the spill store, to be called once the output has stopped taking records.
+     * Spilled records not yet committed stay on disk.
+     */
+    @Override
+    public void close() {
+        shutdown();
+        lock.lock();
+        try {
+            if (storeClosed) {
+                return;
+            }
+            storeClosed = true;
+            storeClosing.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+        if (syncer != null) {
+            try {
+                syncer.join();
+            }
+            catch (InterruptedException e) {
+                LOGGER.warn("Interrupted while closing spill store of <[{}]>", name, e);
+                Thread.currentThread().interrupt();
+            }
+        }
+        lock.lock();
+        try {
+            if (spillStore != null) {
+                spillStore.close();
+            }
+        }
+        catch (IOException e) {
+            LOGGER.warn("Exception while closing spill store of <[{}]>", name, e);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+}
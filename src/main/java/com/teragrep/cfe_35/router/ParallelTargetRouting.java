@@ -48,9 +48,15 @@ package com.teragrep.cfe_35.router;
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
 import com.teragrep.cfe_35.config.RoutingConfig;
+import com.teragrep.cfe_35.config.json.EndpointConfig;
 import com.teragrep.cfe_35.config.json.TargetConfig;
+import com.teragrep.cfe_35.router.relp.RelpEventLoop;
+import com.teragrep.cfe_35.router.relp.RelpPayload;
+import com.teragrep.cfe_35.router.targets.DeadLetter;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -58,86 +64,370 @@ import static com.codahale.metrics.MetricRegistry.name;
 
 public class ParallelTargetRouting implements TargetRouting {
 
-    private final Map<String, Output> outputMap = new HashMap<>();
+    // seconds the reconnect delay grows up to without useresumeintervalmax, as in rsyslog
+    private static final long DEFAULT_RESUME_INTERVAL_MAX = 1800;
+
+    private final Map<String, OutputGroup> outputMap = new HashMap<>();
+    // the same outputs by target id
+    private final TargetIds targetIds;
+    private final OutputGroup[] outputs;
+    // outputs are spread over the loops, thread count does not grow with targets
+    private final List<RelpEventLoop> eventLoops = new ArrayList<>();
     private final Counter totalRecords;
     private final Counter totalBytes;
-    private final ForkJoinPool commonPool = ForkJoinPool.commonPool();
+    private int outputCount = 0;
 
     public ParallelTargetRouting(RoutingConfig routingConfig, MetricRegistry metricRegistry) throws IOException {
+        this(routingConfig, metricRegistry, new TargetIds(routingConfig));
+    }
+
+    /**
+     * @param targetIds ids shared with the {@link RoutingLookup} making the routing decisions
+     */
+    ParallelTargetRouting(RoutingConfig routingConfig, MetricRegistry metricRegistry, TargetIds targetIds)
+            throws IOException {
+        this.targetIds = targetIds;
         this.totalRecords = metricRegistry.counter(name(ParallelTargetRouting.class, "totalRecords"));
         this.totalBytes = metricRegistry.counter(name(ParallelTargetRouting.class, "totalBytes"));
 
+        if (routingConfig.getOutputThreads() < 1) {
+            throw new IllegalArgumentException(
+                    "outputThreads must be at least 1, was <" + routingConfig.getOutputThreads() + ">"
+            );
+        }
+        for (int i = 0; i < routingConfig.getOutputThreads(); i++) {
+            this.eventLoops.add(new RelpEventLoop("output-loop-" + i));
+        }
+
         Map<String, TargetConfig> configMap = routingConfig.getTargetConfigMap();
+
+        // dead-letter first, other outputs may divert their overflow to it
+        String deadLetterName = new DeadLetter().name;
+        OutputGroup deadLetter = null;
+        TargetConfig deadLetterConfig = configMap.get(deadLetterName);
+        if (deadLetterConfig != null && deadLetterConfig.isEnabled()) {
+            if (OverflowPolicy.fromConfig(deadLetterConfig.getOverflow()) == OverflowPolicy.DEAD_LETTER) {
+                throw new IllegalArgumentException("<[" + deadLetterName + "]> can not overflow to itself");
+            }
+            deadLetter = createGroup(deadLetterName, deadLetterConfig, routingConfig, null, metricRegistry);
+            this.outputMap.put(deadLetterName, deadLetter);
+        }
+
         for (Map.Entry<String, TargetConfig> entry : configMap.entrySet()) {
             String targetName = entry.getKey();
             TargetConfig targetConfig = entry.getValue();
-            if (targetConfig.isEnabled()) {
-                Output output = new Output(
-                        targetName,
-                        targetConfig.getTarget(),
-                        Integer.parseInt(targetConfig.getPort()),
-                        routingConfig.getConnectionTimeout(),
-                        routingConfig.getReadTimeout(),
-                        routingConfig.getWriteTimeout(),
-                        routingConfig.getReconnectInterval(),
-                        metricRegistry
+            if (targetConfig.isEnabled() && !targetName.equals(deadLetterName)) {
+                OutputGroup outputGroup = createGroup(
+                        targetName, targetConfig, routingConfig, deadLetter, metricRegistry
                 );
-                this.outputMap.put(targetName, output);
+                this.outputMap.put(targetName, outputGroup);
             }
         }
-    }
 
-    public void route(final RoutingData routingData) {
-        List<RoutingRequest> routingRequests = new ArrayList<>(outputMap.size());
+        this.outputs = new OutputGroup[targetIds.size()];
+        for (Map.Entry<String, OutputGroup> entry : outputMap.entrySet()) {
+            this.outputs[targetIds.intern(entry.getKey())] = entry.getValue();
+        }
 
-        for (String target : routingData.targets) {
-            Output output = outputMap.get(target);
-            if (output == null) {
-                throw new IllegalArgumentException("no such target <[" + target + "]>");
-            }
+        // outputs connect in the background in parallel, ready once every target has a connected endpoint
+        metricRegistry.gauge(name(ParallelTargetRouting.class, "connectedTargets"), () -> this::connectedTargets);
+        metricRegistry
+                .gauge(name(ParallelTargetRouting.class, "ready"), () -> () -> connectedTargets() == outputMap.size() ? 1 : 0);
+    }
 
-            routingRequests.add(new RoutingRequest(output, routingData.payload));
+    private OutputGroup createGroup(
+            String targetName,
+            TargetConfig targetConfig,
+            RoutingConfig routingConfig,
+            OutputGroup deadLetter,
+            MetricRegistry metricRegistry
+    ) throws IOException {
+        List<EndpointConfig> endpoints = targetConfig.getEndpoints();
+        int connections = Integer.parseInt(targetConfig.getConnections());
+        if (connections < 1) {
+            throw new IllegalArgumentException(
+                    "connections of <[" + targetName + "]> must be at least 1, was <" + connections + ">"
+            );
+        }
+        StripingPolicy stripingPolicy = StripingPolicy.fromConfig(targetConfig.getStriping());
+        List<StripedOutput> stripedOutputs = new ArrayList<>(endpoints.size());
+        int[] weights = new int[endpoints.size()];
+        boolean[] backups = new boolean[endpoints.size()];
+        for (int i = 0; i < endpoints.size(); i++) {
+            EndpointConfig endpoint = endpoints.get(i);
+            // a single endpoint keeps the metrics and spill directory of the target
+            String endpointName = targetName;
+            Path endpointDirectory = Paths.get(routingConfig.getSpillDirectory(), targetName);
+            if (endpoints.size() > 1) {
+                endpointName = targetName + "@" + endpoint.getTarget() + ":" + endpoint.getPort();
+                endpointDirectory = endpointDirectory.resolve(endpoint.getTarget() + "-" + endpoint.getPort());
+            }
+            // and so does a single connection those of the endpoint
+            List<Output> outputs = new ArrayList<>(connections);
+            for (int connection = 0; connection < connections; connection++) {
+                String outputName = endpointName;
+                Path spillDirectory = endpointDirectory;
+                if (connections > 1) {
+                    outputName = endpointName + "#" + connection;
+                    spillDirectory = endpointDirectory.resolve(String.valueOf(connection));
+                }
+                outputs
+                        .add(
+                                createOutput(
+                                        outputName, spillDirectory, endpoint, targetConfig, routingConfig, deadLetter,
+                                        metricRegistry
+                                )
+                        );
+            }
+            stripedOutputs.add(new StripedOutput(outputs, stripingPolicy));
+            weights[i] = Integer.parseInt(endpoint.getWeight());
+            backups[i] = endpoint.isBackup();
+        }
+        return new OutputGroup(
+                stripedOutputs,
+                BalancingPolicy.fromConfig(targetConfig.getBalancing()),
+                weights,
+                backups
+        );
+    }
 
-            totalRecords.inc();
-            totalBytes.inc(routingData.payload.length);
+    private Output createOutput(
+            String outputName,
+            Path spillDirectory,
+            EndpointConfig endpoint,
+            TargetConfig targetConfig,
+            RoutingConfig routingConfig,
+            OutputGroup deadLetter,
+            MetricRegistry metricRegistry
+    ) throws IOException {
+        OverflowPolicy overflowPolicy = OverflowPolicy.fromConfig(targetConfig.getOverflow());
+        SpillStore spillStore = null;
+        if (overflowPolicy == OverflowPolicy.SPILL) {
+            spillStore = new SpillStore(
+                    spillDirectory,
+                    routingConfig.getSpillSegmentSize(),
+                    routingConfig.getSpillMaxBytes(),
+                    FsyncPolicy.fromConfig(routingConfig.getSpillFsync()),
+                    routingConfig.getSpillFsyncInterval()
+            );
         }
+        OutputQueue outputQueue = new OutputQueue(
+                outputName,
+                Integer.parseInt(targetConfig.getQueuesize()),
+                overflowPolicy,
+                deadLetter,
+                spillStore,
+                metricRegistry
+        );
 
-        // fanning out
+        return new Output(
+                outputName,
+                endpoint.getTarget(),
+                Integer.parseInt(endpoint.getPort()),
+                routingConfig.getConnectionTimeout(),
+                routingConfig.getReadTimeout(),
+                routingConfig.getWriteTimeout(),
+                routingConfig.getCloseTimeout(),
+                routingConfig.getOutputBatchSize(),
+                routingConfig.getOutputBatchBytes(),
+                routingConfig.getOutputBatchLinger(),
+                routingConfig.getOutputWindowSize(),
+                rebindInterval(targetConfig),
+                outputQueue,
+                new CircuitBreaker(
+                        routingConfig.getCircuitBreakerFailures(),
+                        routingConfig.getCircuitBreakerOpenDuration()
+                ),
+                createReconnectBackoff(targetConfig, routingConfig),
+                eventLoops.get(outputCount++ % eventLoops.size()),
+                metricRegistry
+        );
+    }
+
+    private static int rebindInterval(TargetConfig targetConfig) {
+        if (targetConfig.getRebindinterval() == null) {
+            return 0;
+        }
+        return Integer.parseInt(targetConfig.getRebindinterval());
+    }
 
-        List<Future<Integer>> a = commonPool.invokeAll(routingRequests);
+    /**
+     * Backoff of the resume fields of the target, in seconds, starting from reconnectInterval without them. The delay
+     * doubles per retry up to resumeintervalmax if useresumeintervalmax is set, up to the default maximum otherwise.
+     */
+    private ReconnectBackoff createReconnectBackoff(TargetConfig targetConfig, RoutingConfig routingConfig) {
+        long initialDelay = routingConfig.getReconnectInterval();
+        if (targetConfig.getResumeinterval() != null) {
+            initialDelay = TimeUnit.SECONDS.toMillis(Long.parseLong(targetConfig.getResumeinterval()));
+        }
+        long maxDelay = TimeUnit.SECONDS.toMillis(DEFAULT_RESUME_INTERVAL_MAX);
+        if (targetConfig.isUseresumeintervalmax() && targetConfig.getResumeintervalmax() != null) {
+            maxDelay = TimeUnit.SECONDS.toMillis(Long.parseLong(targetConfig.getResumeintervalmax()));
+        }
+        maxDelay = Math.max(initialDelay, maxDelay);
+        int retryBudget = -1;
+        if (targetConfig.getResumeretrycount() != null) {
+            retryBudget = Integer.parseInt(targetConfig.getResumeretrycount());
+        }
+        if (routingConfig.isReconnectJitter()) {
+            return new ReconnectBackoff(initialDelay, maxDelay, retryBudget, new Random());
+        }
+        return new ReconnectBackoff(initialDelay, maxDelay, retryBudget);
+    }
 
-        for (Future<Integer> fi : a) {
-            try {
-                fi.get();
+    private int connectedTargets() {
+        int connected = 0;
+        for (OutputGroup outputGroup : outputMap.values()) {
+            if (outputGroup.isConnected()) {
+                connected++;
             }
-            catch (InterruptedException | ExecutionException e) {
-                throw new RuntimeException(e);
+        }
+        return connected;
+    }
+
+    @Override
+    public CompletableFuture<Void> route(final RoutingData routingData) {
+        TargetSet targets = targetSet(routingData.targets);
+        for (int id = targets.nextId(0); id >= 0; id = targets.nextId(id + 1)) {
+            if (output(id) == null) {
+                throw new IllegalArgumentException("no such target <[" + targetIds.name(id) + "]>");
             }
         }
 
+        // fanning out, outputs send on their event loops the same payload encoded once
+        RelpPayload payload = new RelpPayload(routingData.payload);
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[targets.size()];
+        int i = 0;
+        for (int id = targets.nextId(0); id >= 0; id = targets.nextId(id + 1)) {
+            futures[i++] = outputs[id].send(payload);
+        }
+        totalRecords.inc(futures.length);
+        totalBytes.inc((long) futures.length * routingData.payload.length);
+
+        return CompletableFuture.allOf(futures);
     }
 
-    private static class RoutingRequest implements Callable<Integer> {
+    /**
+     * Records going to the same target are handed to it together, each target receives its records of the batch in one
+     * enqueue.
+     */
+    @Override
+    public List<CompletableFuture<Void>> route(final List<RoutingData> routingDataList) {
+        List<CompletableFuture<Void>> routed = new ArrayList<>(Collections.nCopies(routingDataList.size(), null));
+        // targets of each record, null if it failed
+        TargetSet[] targetSets = new TargetSet[routingDataList.size()];
+        // records per target in the batch
+        int[] counts = new int[outputs.length];
+        for (int i = 0; i < routingDataList.size(); i++) {
+            RoutingData routingData = routingDataList.get(i);
+            try {
+                TargetSet targets = targetSet(routingData.targets);
+                for (int id = targets.nextId(0); id >= 0; id = targets.nextId(id + 1)) {
+                    if (output(id) == null) {
+                        throw new IllegalArgumentException("no such target <[" + targetIds.name(id) + "]>");
+                    }
+                }
+                targetSets[i] = targets;
+            }
+            catch (IllegalArgumentException illegalArgumentException) {
+                CompletableFuture<Void> failed = new CompletableFuture<>();
+                failed.completeExceptionally(illegalArgumentException);
+                routed.set(i, failed);
+                continue;
+            }
+            for (int id = targetSets[i].nextId(0); id >= 0; id = targetSets[i].nextId(id + 1)) {
+                counts[id]++;
+            }
+        }
+
+        // positions in the batch of the records of each target, in the order of the batch
+        int[][] positions = new int[outputs.length][];
+        for (int id = 0; id < outputs.length; id++) {
+            if (counts[id] > 0) {
+                positions[id] = new int[counts[id]];
+                counts[id] = 0;
+            }
+        }
+        List<RelpPayload> payloads = new ArrayList<>(routingDataList.size());
+        CompletableFuture<?>[][] targetFutures = new CompletableFuture<?>[routingDataList.size()][];
+        long records = 0;
+        long bytes = 0;
+        for (int i = 0; i < routingDataList.size(); i++) {
+            RoutingData routingData = routingDataList.get(i);
+            payloads.add(new RelpPayload(routingData.payload));
+            if (targetSets[i] == null) {
+                continue;
+            }
+            TargetSet targets = targetSets[i];
+            targetFutures[i] = new CompletableFuture<?>[targets.size()];
+            for (int id = targets.nextId(0); id >= 0; id = targets.nextId(id + 1)) {
+                positions[id][counts[id]++] = i;
+                records++;
+                bytes = bytes + routingData.payload.length;
+            }
+        }
 
-        private final Output output;
-        private final byte[] data;
+        // futures of each record filled in the order of its targets
+        int[] filled = new int[routingDataList.size()];
+        for (int id = 0; id < outputs.length; id++) {
+            int[] batch = positions[id];
+            if (batch == null) {
+                continue;
+            }
+            List<RelpPayload> batchPayloads = new ArrayList<>(batch.length);
+            for (int position : batch) {
+                batchPayloads.add(payloads.get(position));
+            }
+            List<CompletableFuture<Void>> sent = outputs[id].send(batchPayloads);
+            for (int i = 0; i < batch.length; i++) {
+                targetFutures[batch[i]][filled[batch[i]]++] = sent.get(i);
+            }
+        }
+        totalRecords.inc(records);
+        totalBytes.inc(bytes);
 
-        RoutingRequest(Output output, byte[] data) {
-            this.output = output;
-            this.data = data;
+        for (int i = 0; i < routed.size(); i++) {
+            if (routed.get(i) == null) {
+                routed.set(i, CompletableFuture.allOf(targetFutures[i]));
+            }
         }
+        return routed;
+    }
 
-        @Override
-        public Integer call() throws Exception {
-            output.accept(data);
-            return 0;
+    /**
+     * @return the targets as ids, sets not decided by a lookup sharing the ids are converted
+     */
+    private TargetSet targetSet(Set<String> targets) {
+        if (targets instanceof TargetSet && ((TargetSet) targets).targetIds == targetIds) {
+            return (TargetSet) targets;
         }
+        for (String target : targets) {
+            // not interned, unknown names would take ids for good
+            if (targetIds.id(target) == -1) {
+                throw new IllegalArgumentException("no such target <[" + target + "]>");
+            }
+        }
+        return targetIds.of(targets);
+    }
+
+    private OutputGroup output(int id) {
+        return id < outputs.length ? outputs[id] : null;
     }
 
     @Override
     public void close() {
-        for (Output output : outputMap.values()) {
-            output.close();
+        // dead-letter last, it may still receive the overflow of the others
+        OutputGroup deadLetter = outputMap.get(new DeadLetter().name);
+        for (OutputGroup outputGroup : outputMap.values()) {
+            if (outputGroup != deadLetter) {
+                outputGroup.close();
+            }
+        }
+        if (deadLetter != null) {
+            deadLetter.close();
+        }
+        for (RelpEventLoop eventLoop : eventLoops) {
+            eventLoop.close();
         }
     }
 
@@ -0,0 +1,112 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import java.io.InputStream;
+
+/**
+ * Input of {@link com.teragrep.rlo_06.RFC5424Frame} reused for every record of a connection instead of a
+ * ByteArrayInputStream per record. Not synchronized, unlike ByteArrayInputStream, as a connection parses its records on
+ * a single thread at a time.
+ */
+final class PayloadInputStream extends InputStream {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private byte[] payload;
+    private int position;
+
+    PayloadInputStream() {
+        this.payload = EMPTY;
+        this.position = 0;
+    }
+
+    /**
+     * Starts reading the payload from the beginning, the previous payload is no longer referenced.
+     */
+    void load(byte[] payload) {
+        this.payload = payload;
+        this.position = 0;
+    }
+
+    @Override
+    public int read() {
+        if (position >= payload.length) {
+            return -1;
+        }
+        return payload[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        if (offset < 0 || length < 0 || length > buffer.length - offset) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (length == 0) {
+            return 0;
+        }
+        int remaining = payload.length - position;
+        if (remaining <= 0) {
+            return -1;
+        }
+        int count = Math.min(length, remaining);
+        System.arraycopy(payload, position, buffer, offset, count);
+        position = position + count;
+        return count;
+    }
+
+    @Override
+    public long skip(long count) {
+        long skipped = Math.max(0, Math.min(count, payload.length - position));
+        position = position + (int) skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return payload.length - position;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import java.util.Random;
+
+/**
+ * Delays between the reconnect attempts of a single endpoint. The delay grows exponentially from initialDelay up to
+ * maxDelay. With jitter the delay is drawn uniformly between zero and the grown delay, so that outputs losing their
+ * target at the same time do not retry in step. Used on the event loop of the output only.
+ */
+final class ReconnectBackoff {
+
+    private final long initialDelay;
+    private final long maxDelay;
+    private final int retryBudget;
+    // null without jitter
+    private final Random random;
+
+    private int retries;
+
+    /**
+     * Backoff without jitter, waiting the grown delay as is.
+     */
+    ReconnectBackoff(long initialDelay, long maxDelay, int retryBudget) {
+        this(initialDelay, maxDelay, retryBudget, null);
+    }
+
+    /**
+     * @param initialDelay milliseconds the first delay is drawn from
+     * @param maxDelay     milliseconds the delay grows up to, initialDelay for a delay that does not grow
+     * @param retryBudget  consecutive retries before giving up, -1 for no limit
+     * @param random       source of the jitter, null for none
+     */
+    ReconnectBackoff(long initialDelay, long maxDelay, int retryBudget, Random random) {
+        if (initialDelay < 0 || maxDelay < initialDelay) {
+            throw new IllegalArgumentException(
+                    "invalid delays, initialDelay <" + initialDelay + "> maxDelay <" + maxDelay + ">"
+            );
+        }
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.retryBudget = retryBudget;
+        this.random = random;
+        this.retries = 0;
+    }
+
+    /**
+     * @return milliseconds to wait before the next retry
+     */
+    long nextDelay() {
+        // doubled per retry, shift limited so that it can not overflow
+        long ceiling = maxDelay;
+        int doublings = Math.min(retries, 62);
+        if (initialDelay <= (maxDelay >> doublings)) {
+            ceiling = initialDelay << doublings;
+        }
+        retries++;
+        if (random == null) {
+            return ceiling;
+        }
+        return (long) (random.nextDouble() * (ceiling + 1));
+    }
+
+    /**
+     * @return true once the retry budget is spent
+     */
+    boolean isExhausted() {
+        return retryBudget >= 0 && retries >= retryBudget;
+    }
+
+    void reset() {
+        retries = 0;
+    }
+}
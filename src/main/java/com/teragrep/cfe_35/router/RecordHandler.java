@@ -0,0 +1,151 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SlidingWindowReservoir;
+import com.codahale.metrics.Timer;
+import com.teragrep.rlo_06.Fragment;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * A {@link Routeable} registered in a {@link RouteableRegistry}, handling the records that carry its SD-ID with all of
+ * its params.
+ */
+final class RecordHandler {
+
+    final String name;
+    // encoded once, fragments of the frame are matched against them in place
+    final ByteBuffer sdElementId;
+    final int sdElementIdHash;
+    private final ByteBuffer[] sdParamKeys;
+    // all params found
+    final int complete;
+
+    private final Routeable routeable;
+    private final Counter records;
+    private final Timer routeLatency;
+
+    /**
+     * @param sdElementId SD-ID of the format, null for the fallback
+     */
+    RecordHandler(
+            String name,
+            String sdElementId,
+            String[] sdParamKeys,
+            Routeable routeable,
+            MetricRegistry metricRegistry
+    ) {
+        if (sdParamKeys.length > Integer.SIZE) {
+            throw new IllegalArgumentException(
+                    "record format <[" + name + "]> requires more than " + Integer.SIZE + " params"
+            );
+        }
+        this.name = name;
+        this.sdElementId = sdElementId == null ? null : ByteBuffer
+                .wrap(sdElementId.getBytes(StandardCharsets.US_ASCII))
+                .asReadOnlyBuffer();
+        this.sdElementIdHash = this.sdElementId == null ? 0 : hash(this.sdElementId);
+        this.sdParamKeys = new ByteBuffer[sdParamKeys.length];
+        for (int i = 0; i < sdParamKeys.length; i++) {
+            this.sdParamKeys[i] = ByteBuffer
+                    .wrap(sdParamKeys[i].getBytes(StandardCharsets.US_ASCII))
+                    .asReadOnlyBuffer();
+        }
+        this.complete = sdParamKeys.length == Integer.SIZE ? -1 : (1 << sdParamKeys.length) - 1;
+        this.routeable = routeable;
+        this.records = metricRegistry.counter(name(RecordHandler.class, "<[" + name + "]>", "records"));
+        this.routeLatency = metricRegistry
+                .timer(name(RecordHandler.class, "<[" + name + "]>", "routeLatency"), () -> new Timer(new SlidingWindowReservoir(10000)));
+    }
+
+    /**
+     * @return hash of the bytes of the fragment, read in place
+     */
+    static int hash(Fragment fragment) {
+        return hash(fragment.toByteBuffer());
+    }
+
+    private static int hash(ByteBuffer bytes) {
+        int hash = 1;
+        for (int i = bytes.position(); i < bytes.limit(); i++) {
+            hash = 31 * hash + bytes.get(i);
+        }
+        // spread the high bits into the low bits indexing the table
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @return true if the SD element has the SD-ID of this format
+     */
+    boolean matches(Fragment sdElementId) {
+        return this.sdElementId != null && sdElementId.matches(this.sdElementId);
+    }
+
+    /**
+     * @return bit of the required param, 0 if the key is not one of them
+     */
+    int sdParamBit(Fragment sdParamKey) {
+        for (int i = 0; i < sdParamKeys.length; i++) {
+            if (sdParamKey.matches(sdParamKeys[i])) {
+                return 1 << i;
+            }
+        }
+        return 0;
+    }
+
+    RoutingData route(byte[] payload) {
+        records.inc();
+        try (Timer.Context context = routeLatency.time()) {
+            return routeable.route(payload);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import com.teragrep.cfe_35.config.RoutingConfig;
+import com.teragrep.cfe_35.router.targets.DeadLetter;
+import com.teragrep.cfe_35.router.targets.Inspection;
+import com.teragrep.rlo_06.RFC5424Frame;
+
+/**
+ * Record formats recognized by their SD-ID, enabled and ordered by the recordFormats property. The SD-ID of each is
+ * configured too. Records of none of them are routed as cfe_07.
+ */
+enum RecordKind {
+
+    // kin02SdElementId with account and log-group
+    KIN02("kin02", "account", "log-group") {
+
+        @Override
+        String sdElementId(RoutingConfig routingConfig) {
+            return routingConfig.getKin02SdElementId();
+        }
+
+        @Override
+        Routeable routeable(
+                RoutingLookup routingLookup,
+                RFC5424Frame rfc5424Frame,
+                RoutingConfig routingConfig,
+                DeadLetter deadLetter,
+                Inspection inspection
+        ) {
+            return new KIN02RecordFrame(routingLookup, rfc5424Frame, routingConfig, deadLetter, inspection);
+        }
+    },
+    // cfe16SdElementId with authentication_token
+    CFE16("cfe16", "authentication_token") {
+
+        @Override
+        String sdElementId(RoutingConfig routingConfig) {
+            return routingConfig.getCfe16SdElementId();
+        }
+
+        @Override
+        Routeable routeable(
+                RoutingLookup routingLookup,
+                RFC5424Frame rfc5424Frame,
+                RoutingConfig routingConfig,
+                DeadLetter deadLetter,
+                Inspection inspection
+        ) {
+            return new CFE16RecordFrame(routingLookup, rfc5424Frame, routingConfig, deadLetter, inspection);
+        }
+    };
+
+    final String name;
+    // params a record needs to be of the format
+    final String[] sdParamKeys;
+
+    RecordKind(String name, String ... sdParamKeys) {
+        this.name = name;
+        this.sdParamKeys = sdParamKeys;
+    }
+
+    abstract String sdElementId(RoutingConfig routingConfig);
+
+    abstract Routeable routeable(
+            RoutingLookup routingLookup,
+            RFC5424Frame rfc5424Frame,
+            RoutingConfig routingConfig,
+            DeadLetter deadLetter,
+            Inspection inspection
+    );
+
+    static RecordKind fromConfig(String recordFormat) {
+        for (RecordKind recordKind : values()) {
+            if (recordKind.name.equals(recordFormat)) {
+                return recordKind;
+            }
+        }
+        throw new IllegalArgumentException("unknown record format <[" + recordFormat + "]>");
+    }
+}
@@ -45,49 +45,46 @@
  */
 package com.teragrep.cfe_35.router;
 
-import com.teragrep.rlo_06.*;
-import com.teragrep.rlo_14.Facility;
-import com.teragrep.rlo_14.Severity;
-import com.teragrep.rlo_14.SyslogMessage;
-
-import java.nio.charset.StandardCharsets;
 import java.time.format.DateTimeFormatter;
 
 public class ReplacementUtilityClass {
 
     final static DateTimeFormatter dateTimeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSSSSxxx");
 
-    static byte[] replace(RFC5424Frame rfc5424Frame, String hostname, String appName) {
-
-        RFC5424Facility rfc5424Facility = new RFC5424Facility(rfc5424Frame.priority);
-        RFC5424Severity rfc5424Severity = new RFC5424Severity(rfc5424Frame.priority);
-
-        SyslogMessage syslogMessage = new SyslogMessage()
-                .withFacility(Facility.fromNumericalCode(rfc5424Facility.asInt()))
-                .withSeverity(Severity.fromNumericalCode(rfc5424Severity.asInt()))
-                .withTimestamp(rfc5424Frame.timestamp.toString(), true)
-                .withHostname(hostname)
-                .withAppName(appName)
-                .withProcId(rfc5424Frame.procId.toString())
-                .withMsgId(rfc5424Frame.msgId.toString())
-                .withMsg(rfc5424Frame.msg.toString());
-
-        for (SDElement sdElement : rfc5424Frame.structuredData.sdElements) {
-
-            com.teragrep.rlo_14.SDElement createdSdElement = new com.teragrep.rlo_14.SDElement(
-                    sdElement.sdElementId.toString()
-            );
-
-            for (SDParam sdParam : sdElement.sdParams) {
-                com.teragrep.rlo_14.SDParam createdSdParam = new com.teragrep.rlo_14.SDParam(
-                        sdParam.sdParamKey.toString(),
-                        sdParam.sdParamValue.toString()
-                );
-                createdSdElement.addSDParam(createdSdParam);
+    /**
+     * Replaces the hostname and appName of a syslog message without parsing the rest of it.
+     *
+     * @param header new hostname and appName separated by a space
+     */
+    static byte[] splice(byte[] syslogMessage, byte[] header) {
+        // hostname follows the 2nd space and appName ends at the 4th
+        int hostnameStart = -1;
+        int appNameEnd = -1;
+        int spaces = 0;
+        for (int i = 0; i < syslogMessage.length; i++) {
+            if (syslogMessage[i] == ' ') {
+                spaces++;
+                if (spaces == 2) {
+                    hostnameStart = i + 1;
+                }
+                else if (spaces == 4) {
+                    appNameEnd = i;
+                    break;
+                }
             }
-            syslogMessage.withSDElement(createdSdElement);
+        }
+        if (appNameEnd == -1) {
+            throw new IllegalArgumentException("no hostname and appName in syslog message");
         }
 
-        return syslogMessage.toRfc5424SyslogMessage().getBytes(StandardCharsets.UTF_8);
+        byte[] spliced = new byte[hostnameStart + header.length + syslogMessage.length - appNameEnd];
+        System.arraycopy(syslogMessage, 0, spliced, 0, hostnameStart);
+        System.arraycopy(header, 0, spliced, hostnameStart, header.length);
+        System
+                .arraycopy(
+                        syslogMessage, appNameEnd, spliced, hostnameStart + header.length,
+                        syslogMessage.length - appNameEnd
+                );
+        return spliced;
     }
 }
@@ -0,0 +1,78 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Resolved routing of a cfe_16 token or a kin_02 account and logGroup, shared by every record carrying them.
+ */
+final class RewriteDecision {
+
+    final TargetSet targets;
+    // hostname and appName replacing the ones of the record, null when the record is routed as is
+    final byte[] header;
+
+    /**
+     * Record routed as is.
+     */
+    RewriteDecision(TargetSet targets) {
+        this.targets = targets;
+        this.header = null;
+    }
+
+    /**
+     * Record routed with the hostname and appName replaced.
+     */
+    RewriteDecision(TargetSet targets, String hostname, String appName) {
+        this.targets = targets;
+        this.header = (nilIfEmpty(hostname) + " " + nilIfEmpty(appName)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String nilIfEmpty(String value) {
+        return value.isEmpty() ? "-" : value;
+    }
+}
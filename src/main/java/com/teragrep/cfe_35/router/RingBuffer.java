@@ -0,0 +1,140 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Bounded lock-free ring of pre-allocated events, published by any number of threads and consumed by one. A publisher
+ * claims a slot, fills the event in place and publishes it, the consumer handles the events in the order of their
+ * claims. Nothing is allocated after construction.
+ */
+final class RingBuffer<E> {
+
+    private final Object[] events;
+    // per slot, the sequence a publisher may claim it at, or the sequence plus one once published
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong claimed;
+    // written by the consumer only
+    private volatile long consumed;
+
+    RingBuffer(int size, Supplier<E> eventFactory) {
+        if (size < 1 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("size must be a power of two, was <" + size + ">");
+        }
+        this.events = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            events[i] = eventFactory.get();
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.claimed = new AtomicLong(0);
+        this.consumed = 0;
+    }
+
+    /**
+     * Claims a slot, fills its event with the translator and publishes it.
+     *
+     * @return false if the ring is full
+     */
+    boolean publish(Consumer<E> translator) {
+        long sequence = claimed.get();
+        while (true) {
+            int index = (int) (sequence & mask);
+            long available = sequences.get(index) - sequence;
+            if (available == 0) {
+                if (claimed.compareAndSet(sequence, sequence + 1)) {
+                    translator.accept(event(index));
+                    sequences.set(index, sequence + 1);
+                    return true;
+                }
+                sequence = claimed.get();
+            }
+            else if (available < 0) {
+                // slot not consumed yet a lap ago
+                return false;
+            }
+            else {
+                // claimed by another publisher meanwhile
+                sequence = claimed.get();
+            }
+        }
+    }
+
+    /**
+     * Handles the next published event, the event is reused once the handler returns. Called by the consumer only.
+     *
+     * @return false if nothing is published
+     */
+    boolean consume(Consumer<E> handler) {
+        long sequence = consumed;
+        int index = (int) (sequence & mask);
+        if (sequences.get(index) != sequence + 1) {
+            return false;
+        }
+        handler.accept(event(index));
+        sequences.set(index, sequence + events.length);
+        consumed = sequence + 1;
+        return true;
+    }
+
+    /**
+     * @return events claimed and not yet consumed
+     */
+    int size() {
+        return (int) Math.max(0, claimed.get() - consumed);
+    }
+
+    @SuppressWarnings("unchecked")
+    private E event(int index) {
+        return (E) events[index];
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import com.teragrep.rlo_06.Fragment;
+import com.teragrep.rlo_06.RFC5424Frame;
+import com.teragrep.rlo_06.SDElement;
+import com.teragrep.rlo_06.SDParam;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Chooses the {@link RecordHandler} of a parsed frame. Handlers are indexed by the hash of their SD-ID, each SD element
+ * of the record costs one table lookup however many formats are registered. The hash is computed over the bytes of the
+ * frame in place and the SD-ID is then matched in place too, nothing is copied out of the frame. When a record matches
+ * several formats, the one registered first wins, and records matching none go to the fallback. Not thread-safe, like
+ * the frame it reads.
+ */
+final class RouteableRegistry {
+
+    private static final int[] EMPTY = new int[0];
+
+    private final RFC5424Frame rfc5424Frame;
+    private final RecordHandler fallback;
+    private final List<RecordHandler> handlers;
+
+    // handler indexes by SD-ID hash, a bucket holds more than one only on hash collisions
+    private int[][] table;
+
+    // params found per handler for the current record, and the handlers to clear afterwards
+    private int[] found;
+    private int[] touched;
+
+    RouteableRegistry(RFC5424Frame rfc5424Frame, RecordHandler fallback) {
+        this.rfc5424Frame = rfc5424Frame;
+        this.fallback = fallback;
+        this.handlers = new ArrayList<>();
+        this.table = new int[1][];
+        this.table[0] = EMPTY;
+        this.found = new int[0];
+        this.touched = new int[0];
+    }
+
+    /**
+     * Registers a handler after the ones registered before it.
+     */
+    void register(RecordHandler handler) {
+        for (RecordHandler registered : handlers) {
+            if (registered.sdElementId.equals(handler.sdElementId)) {
+                throw new IllegalArgumentException(
+                        "record format <[" + handler.name + "]> has the SD-ID of <[" + registered.name + "]>"
+                );
+            }
+        }
+        handlers.add(handler);
+
+        // at most half full
+        int size = Integer.highestOneBit(handlers.size()) << 2;
+        int[][] table = new int[size][];
+        Arrays.fill(table, EMPTY);
+        for (int index = 0; index < handlers.size(); index++) {
+            int slot = handlers.get(index).sdElementIdHash & (size - 1);
+            table[slot] = Arrays.copyOf(table[slot], table[slot].length + 1);
+            table[slot][table[slot].length - 1] = index;
+        }
+        this.table = table;
+        found = new int[handlers.size()];
+        touched = new int[handlers.size()];
+    }
+
+    /**
+     * @return index of the handler of the SD-ID, the number of handlers if none
+     */
+    private int indexOf(Fragment sdElementId) {
+        int[] bucket = table[RecordHandler.hash(sdElementId) & (table.length - 1)];
+        for (int index : bucket) {
+            if (handlers.get(index).matches(sdElementId)) {
+                return index;
+            }
+        }
+        return handlers.size();
+    }
+
+    /**
+     * @return handler of the record the frame was last advanced to
+     */
+    RecordHandler dispatch() {
+        int best = handlers.size();
+        int touchedCount = 0;
+
+        for (SDElement sdElement : rfc5424Frame.structuredData.sdElements) {
+            // only a handler registered before the best one so far can win
+            int index = indexOf(sdElement.sdElementId);
+            if (index >= best) {
+                continue;
+            }
+            RecordHandler handler = handlers.get(index);
+            int params = found[index];
+            for (SDParam sdParam : sdElement.sdParams) {
+                params |= handler.sdParamBit(sdParam.sdParamKey);
+            }
+            if (found[index] == 0 && params != 0) {
+                touched[touchedCount++] = index;
+            }
+            found[index] = params;
+            if (params == handler.complete) {
+                best = index;
+            }
+        }
+
+        for (int i = 0; i < touchedCount; i++) {
+            found[touched[i]] = 0;
+        }
+        return best < handlers.size() ? handlers.get(best) : fallback;
+    }
+}
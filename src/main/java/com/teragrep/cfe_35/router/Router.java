@@ -49,9 +49,13 @@ import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Slf4jReporter;
 import com.codahale.metrics.jmx.JmxReporter;
 import com.teragrep.cfe_35.config.RoutingConfig;
+import com.teragrep.rlp_01.RelpCommand;
 import com.teragrep.rlp_03.channel.socket.PlainFactory;
 import com.teragrep.rlp_03.frame.delegate.DefaultFrameDelegate;
 import com.teragrep.rlp_03.frame.delegate.FrameDelegate;
+import com.teragrep.rlp_03.frame.delegate.event.RelpEvent;
+import com.teragrep.rlp_03.frame.delegate.event.RelpEventClose;
+import com.teragrep.rlp_03.frame.delegate.event.RelpEventOpen;
 import com.teragrep.rlp_03.server.Server;
 import com.teragrep.rlp_03.server.ServerFactory;
 import io.prometheus.client.CollectorRegistry;
@@ -63,7 +67,8 @@ import org.eclipse.jetty.servlet.ServletHolder;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -73,6 +78,8 @@ public class Router implements AutoCloseable {
 
     private final Server server;
     private final RoutingLookup routingLookup;
+    private final TargetRouting targetRouting;
+    private final RoutingStage routingStage;
     private final MetricRegistry metricRegistry = new MetricRegistry();
     private final JmxReporter jmxReporter;
     private final Slf4jReporter slf4jReporter;
@@ -87,22 +94,46 @@ public class Router implements AutoCloseable {
                 .convertDurationsTo(TimeUnit.MILLISECONDS)
                 .build();
 
-        this.routingLookup = new RoutingLookup(routingConfig);
+        // target ids shared by the routing decisions and the outputs
+        TargetIds targetIds = new TargetIds(routingConfig);
+        this.routingLookup = new RoutingLookup(routingConfig, this.metricRegistry, targetIds);
+
+        // outputs are shared by all inbound connections, connection count scales with targets and not with clients
+        TargetRouting parallelTargetRouting = new ParallelTargetRouting(routingConfig, this.metricRegistry, targetIds);
+        if (routingConfig.isJournalEnabled()) {
+            this.targetRouting = new JournaledTargetRouting(parallelTargetRouting, routingConfig, this.metricRegistry);
+        }
+        else {
+            this.targetRouting = parallelTargetRouting;
+        }
+
+        // parsing and routing on threads of their own, otherwise on the server threads
+        if (routingConfig.getRoutingThreads() > 0) {
+            this.routingStage = new RoutingStage(
+                    routingConfig.getRoutingThreads(),
+                    routingConfig.getRoutingRingSize(),
+                    this.metricRegistry
+            );
+        }
+        else {
+            this.routingStage = null;
+        }
 
         Supplier<FrameDelegate> routingInstanceSupplier = () -> {
-            TargetRouting targetRouting;
-            try {
-                targetRouting = new ParallelTargetRouting(routingConfig, this.metricRegistry);
-            }
-            catch (IOException e) {
-                throw new UncheckedIOException(e);
-            }
             MessageParser messageParser = new MessageParser(
                     this.routingLookup,
-                    targetRouting,
+                    this.targetRouting,
                     this.metricRegistry,
-                    routingConfig
+                    routingConfig,
+                    this.routingStage == null ? null : this.routingStage.lane()
             );
+            if (routingConfig.isAsyncRouting()) {
+                Map<String, RelpEvent> relpEvents = new HashMap<>();
+                relpEvents.put(RelpCommand.OPEN, new RelpEventOpen());
+                relpEvents.put(RelpCommand.CLOSE, new RelpEventClose());
+                relpEvents.put(RelpCommand.SYSLOG, new AsyncRelpEventSyslog(messageParser));
+                return new DefaultFrameDelegate(relpEvents);
+            }
             return new DefaultFrameDelegate(messageParser);
         };
 
@@ -144,6 +175,10 @@ public class Router implements AutoCloseable {
     public void close() throws Exception {
         // stop after done
         server.stop();
+        if (routingStage != null) {
+            routingStage.close();
+        }
+        targetRouting.close();
         slf4jReporter.close();
         jmxReporter.close();
         jettyServer.stop();
@@ -49,6 +49,7 @@ import java.util.Set;
 
 class RoutingData {
 
+    // shared by every target of the record and written to them as is, never modified after routing
     final byte[] payload;
     final Set<String> targets;
 
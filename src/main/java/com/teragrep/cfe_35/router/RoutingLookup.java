@@ -45,6 +45,7 @@
  */
 package com.teragrep.cfe_35.router;
 
+import com.codahale.metrics.MetricRegistry;
 import com.teragrep.cfe_35.config.RoutingConfig;
 import com.teragrep.cfe_35.router.targets.DeadLetter;
 import com.teragrep.cfe_35.router.targets.Inspection;
@@ -64,7 +65,29 @@ public class RoutingLookup {
     KIN02Routing kin02Routing;
     CFE16Routing cfe16Routing;
 
+    // ids of the targets decided on
+    final TargetIds targetIds;
+
+    // targets of cfe_07 records by hostname and appName
+    final DecisionCache<LookupKey, TargetSet> cfe07Decisions;
+    // rewrites of cfe_16 records by token
+    final DecisionCache<LookupKey, RewriteDecision> cfe16Decisions;
+    // rewrites of kin_02 records by account and logGroup
+    final DecisionCache<LookupKey, RewriteDecision> kin02Decisions;
+
     RoutingLookup(RoutingConfig routingConfig) throws IOException {
+        this(routingConfig, new MetricRegistry());
+    }
+
+    RoutingLookup(RoutingConfig routingConfig, MetricRegistry metricRegistry) throws IOException {
+        this(routingConfig, metricRegistry, new TargetIds(routingConfig));
+    }
+
+    /**
+     * @param targetIds ids shared with the {@link TargetRouting} the decisions are routed with
+     */
+    RoutingLookup(RoutingConfig routingConfig, MetricRegistry metricRegistry, TargetIds targetIds) throws IOException {
+        this.targetIds = targetIds;
         DeadLetter deadLetter = new DeadLetter();
         Inspection inspection = new Inspection();
 
@@ -80,6 +103,19 @@ public class RoutingLookup {
         cfe07Routing = new CFE07Routing(routingConfig.getCfe07Lookup(), targets);
         cfe16Routing = new CFE16Routing(routingConfig.getCfe16Lookup());
         kin02Routing = new KIN02Routing(routingConfig.getKin02Lookup());
+
+        cfe07Decisions = new DecisionCache<>("cfe07", routingConfig.getRoutingCacheSize(), metricRegistry);
+        cfe16Decisions = new DecisionCache<>("cfe16", routingConfig.getRoutingCacheSize(), metricRegistry);
+        kin02Decisions = new DecisionCache<>("kin02", routingConfig.getRoutingCacheSize(), metricRegistry);
+    }
+
+    /**
+     * Drops the cached routing decisions, to be called when the lookups are reloaded.
+     */
+    void invalidate() {
+        cfe07Decisions.invalidateAll();
+        cfe16Decisions.invalidateAll();
+        kin02Decisions.invalidateAll();
     }
 
     public Hostname getHostnameForToken(String token) {
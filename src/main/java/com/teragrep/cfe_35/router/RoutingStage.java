@@ -0,0 +1,263 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SlidingWindowReservoir;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Stage parsing and routing the records copied by the server threads, so that parsing does not hold the socket reads.
+ * Each routing thread consumes a {@link RingBuffer} of its own, a lane. A connection publishes all of its records to
+ * the same lane, so they are routed in the order they arrived. The routing thread drains what is published and routes
+ * the consecutive records of a connection as one batch.
+ */
+final class RoutingStage implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RoutingStage.class);
+
+    // empty polls before the routing thread parks
+    private static final int SPINS = 100;
+    // records drained at most before they are routed
+    private static final int MAX_BATCH = 256;
+
+    private final List<Lane> lanes;
+    private final AtomicInteger nextLane;
+
+    RoutingStage(int routingThreads, int ringSize, MetricRegistry metricRegistry) {
+        if (routingThreads < 1) {
+            throw new IllegalArgumentException("routingThreads must be at least 1, was <" + routingThreads + ">");
+        }
+        this.lanes = new ArrayList<>(routingThreads);
+        for (int i = 0; i < routingThreads; i++) {
+            lanes.add(new Lane(i, ringSize, metricRegistry));
+        }
+        this.nextLane = new AtomicInteger(0);
+    }
+
+    /**
+     * @return lane for the records of a new connection, lanes are handed out in turn
+     */
+    Lane lane() {
+        return lanes.get(Math.floorMod(nextLane.getAndIncrement(), lanes.size()));
+    }
+
+    /**
+     * Routes what was published already and stops the routing threads.
+     */
+    @Override
+    public void close() {
+        for (Lane lane : lanes) {
+            lane.close();
+        }
+    }
+
+    /**
+     * Slot of the ring, reused once routed.
+     */
+    private static final class Event {
+
+        private MessageParser messageParser;
+        private byte[] payload;
+        private CompletableFuture<Void> future;
+        private long publishedNanos;
+    }
+
+    static final class Lane implements Runnable {
+
+        private final RingBuffer<Event> ringBuffer;
+        private final Thread thread;
+        private volatile boolean running;
+        private volatile boolean parked;
+
+        // consecutive records of one connection drained from the ring, routed together
+        private MessageParser batchParser;
+        private final List<byte[]> batchPayloads;
+        private final List<CompletableFuture<Void>> batchFutures;
+
+        // metrics
+        private final Timer waitTime;
+
+        private Lane(int index, int ringSize, MetricRegistry metricRegistry) {
+            this.ringBuffer = new RingBuffer<>(ringSize, Event::new);
+            this.running = true;
+            this.parked = false;
+            this.batchParser = null;
+            this.batchPayloads = new ArrayList<>(MAX_BATCH);
+            this.batchFutures = new ArrayList<>(MAX_BATCH);
+
+            this.waitTime = metricRegistry
+                    .timer(name(RoutingStage.class, "<[" + index + "]>", "waitTime"), () -> new Timer(new SlidingWindowReservoir(10000)));
+            metricRegistry.gauge(name(RoutingStage.class, "<[" + index + "]>", "occupancy"), () -> ringBuffer::size);
+
+            this.thread = new Thread(this, "routing-" + index);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        /**
+         * Publishes the record to the routing thread of the lane, waits while the ring is full.
+         *
+         * @return future completing once every target has acknowledged the record
+         */
+        CompletableFuture<Void> submit(MessageParser messageParser, byte[] payload) {
+            final CompletableFuture<Void> future = new CompletableFuture<>();
+            while (!ringBuffer.publish(event -> {
+                event.messageParser = messageParser;
+                event.payload = payload;
+                event.future = future;
+                event.publishedNanos = System.nanoTime();
+            })) {
+                if (!running) {
+                    throw new IllegalStateException("routing stage is closed");
+                }
+                // backpressure towards the client, the routing thread frees slots
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+            }
+            if (parked) {
+                LockSupport.unpark(thread);
+            }
+            return future;
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            while (running || ringBuffer.size() > 0) {
+                int drained = 0;
+                while (drained < MAX_BATCH && ringBuffer.consume(this::collect)) {
+                    drained++;
+                }
+                if (drained > 0) {
+                    route();
+                    idle = 0;
+                    continue;
+                }
+                if (idle < SPINS) {
+                    idle++;
+                    Thread.yield();
+                    continue;
+                }
+                parked = true;
+                // a record published before parked was set is seen here
+                if (ringBuffer.size() == 0 && running) {
+                    LockSupport.park(this);
+                }
+                parked = false;
+            }
+        }
+
+        /**
+         * Adds the record to the batch, routing the batch first if it is of another connection.
+         */
+        private void collect(Event event) {
+            waitTime.update(System.nanoTime() - event.publishedNanos, TimeUnit.NANOSECONDS);
+            if (event.messageParser != batchParser) {
+                route();
+                batchParser = event.messageParser;
+            }
+            batchPayloads.add(event.payload);
+            batchFutures.add(event.future);
+            // not kept alive by the slot
+            event.messageParser = null;
+            event.payload = null;
+            event.future = null;
+        }
+
+        private void route() {
+            if (batchPayloads.isEmpty()) {
+                return;
+            }
+            try {
+                List<CompletableFuture<Void>> routed = batchParser.route(batchPayloads);
+                for (int i = 0; i < routed.size(); i++) {
+                    final CompletableFuture<Void> future = batchFutures.get(i);
+                    routed.get(i).whenComplete((result, throwable) -> {
+                        if (throwable == null) {
+                            future.complete(null);
+                        }
+                        else {
+                            future.completeExceptionally(throwable);
+                        }
+                    });
+                }
+            }
+            catch (RuntimeException e) {
+                LOGGER.error("Exception while routing <{}> records", batchPayloads.size(), e);
+                for (CompletableFuture<Void> future : batchFutures) {
+                    future.completeExceptionally(e);
+                }
+            }
+            finally {
+                batchParser = null;
+                batchPayloads.clear();
+                batchFutures.clear();
+            }
+        }
+
+        private void close() {
+            running = false;
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
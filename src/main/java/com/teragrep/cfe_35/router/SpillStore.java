@@ -0,0 +1,476 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent queue of records in memory-mapped segment files of a directory. Records are appended to the newest segment
+ * and read from the oldest. Each record carries a CRC32 of its payload, a segment ends at the first record failing the
+ * check, which covers a write torn by a crash. A read record is committed once the target has acknowledged it, the
+ * segment header keeps the committed position and after a restart reading continues from there. A segment is deleted
+ * once committed completely and no longer written to. Segments written with another segment size are recovered with the
+ * size of their file. Not thread-safe, guarded by the lock of the owning {@link OutputQueue}.
+ */
+final class SpillStore implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpillStore.class);
+
+    // segment header: magic, committed position
+    private static final int MAGIC = 0x43464533;
+    private static final int SEGMENT_HEADER = 2 * Integer.BYTES;
+    // record header: payload length, crc32 of the payload
+    private static final int RECORD_HEADER = 2 * Integer.BYTES;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxBytes;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncInterval;
+
+    private final ArrayDeque<Segment> segments;
+    // read and not yet committed, in the order of reading
+    private final ArrayDeque<SpilledRecord> uncommitted;
+    private final CRC32 crc32;
+    private long nextSequence;
+    // written since the last fsync
+    private boolean dirty;
+    private long unreadBytes;
+
+    /**
+     * @param segmentSize   bytes in a segment file, limits the record size
+     * @param maxBytes      bytes all segment files may take together
+     * @param fsyncInterval milliseconds between fsyncs with {@link FsyncPolicy#INTERVAL}, run by the owner calling
+     *                      {@link #sync()}
+     */
+    SpillStore(Path directory, int segmentSize, long maxBytes, FsyncPolicy fsyncPolicy, long fsyncInterval)
+            throws IOException {
+        if (segmentSize <= SEGMENT_HEADER + RECORD_HEADER) {
+            throw new IllegalArgumentException("segmentSize too small, was <" + segmentSize + ">");
+        }
+        if (maxBytes < segmentSize) {
+            throw new IllegalArgumentException(
+                    "maxBytes <" + maxBytes + "> must fit at least one segment of <" + segmentSize + ">"
+            );
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncInterval = fsyncInterval;
+
+        this.segments = new ArrayDeque<>();
+        this.uncommitted = new ArrayDeque<>();
+        this.crc32 = new CRC32();
+        this.nextSequence = 0;
+        this.dirty = false;
+        this.unreadBytes = 0;
+
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    private void recover() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory, "segment-*.spill")) {
+            for (Path path : directoryStream) {
+                paths.add(path);
+            }
+        }
+        // zero padded sequence, lexical order is the order of writing
+        Collections.sort(paths);
+
+        for (Path path : paths) {
+            String fileName = path.getFileName().toString();
+            long sequence = Long
+                    .parseLong(fileName.substring("segment-".length(), fileName.length() - ".spill".length()));
+            nextSequence = Math.max(nextSequence, sequence + 1);
+
+            long fileSize = Files.size(path);
+            if (fileSize <= SEGMENT_HEADER + RECORD_HEADER || fileSize > Integer.MAX_VALUE) {
+                LOGGER.error("Discarding spill segment <[{}]> of <{}> bytes", path, fileSize);
+                Files.delete(path);
+                continue;
+            }
+            if (fileSize != segmentSize) {
+                LOGGER
+                        .info(
+                                "Recovering spill segment <[{}]> of <{}> bytes, new segments are <{}> bytes", path,
+                                fileSize, segmentSize
+                        );
+            }
+            Segment segment = new Segment(path, (int) fileSize);
+            if (segment.buffer.getInt(0) != MAGIC) {
+                LOGGER.error("Discarding spill segment <[{}]> without a valid header", path);
+                segment.delete();
+                continue;
+            }
+            segment.committedPosition = segment.buffer.getInt(Integer.BYTES);
+            segment.readPosition = segment.committedPosition;
+            segment.writePosition = scan(segment);
+            if (segment.committedPosition < SEGMENT_HEADER || segment.committedPosition > segment.writePosition) {
+                LOGGER.error("Discarding spill segment <[{}]> with an invalid committed position", path);
+                segment.delete();
+                continue;
+            }
+            Segment previous = segments.peekLast();
+            if (previous != null && previous.isCommitted()) {
+                segments.removeLast();
+                previous.delete();
+            }
+            segments.add(segment);
+            unreadBytes = unreadBytes + segment.writePosition - segment.readPosition;
+        }
+        if (unreadBytes > 0) {
+            LOGGER
+                    .info(
+                            "Recovered <{}> spilled bytes in <{}> segments from <[{}]>", unreadBytes, segments.size(),
+                            directory
+                    );
+        }
+    }
+
+    /**
+     * @return position after the last intact record
+     */
+    private int scan(Segment segment) {
+        int position = SEGMENT_HEADER;
+        while (isIntact(segment, position)) {
+            position = position + RECORD_HEADER + segment.buffer.getInt(position);
+        }
+        return position;
+    }
+
+    private boolean isIntact(Segment segment, int position) {
+        if (position + RECORD_HEADER > segment.size) {
+            return false;
+        }
+        int length = segment.buffer.getInt(position);
+        if (length <= 0 || length > segment.size - position - RECORD_HEADER) {
+            return false;
+        }
+        ByteBuffer payload = segment.buffer.duplicate();
+        payload.limit(position + RECORD_HEADER + length);
+        payload.position(position + RECORD_HEADER);
+        crc32.reset();
+        crc32.update(payload);
+        return segment.buffer.getInt(position + Integer.BYTES) == (int) crc32.getValue();
+    }
+
+    /**
+     * @return true if the record fits without exceeding the disk usage cap
+     */
+    boolean hasCapacity(int length) {
+        Segment tail = segments.peekLast();
+        if (tail != null && tail.writePosition + RECORD_HEADER + length <= tail.size) {
+            return true;
+        }
+        long bytesKept = diskBytes();
+        if (tail != null && tail.isCommitted()) {
+            // replaced on rotation
+            bytesKept = bytesKept - tail.size;
+        }
+        return bytesKept + segmentSize <= maxBytes;
+    }
+
+    /**
+     * @throws IOException if the record does not fit into a segment or the disk usage cap is reached
+     */
+    void write(byte[] record) throws IOException {
+        int size = RECORD_HEADER + record.length;
+        if (record.length == 0 || size > segmentSize - SEGMENT_HEADER) {
+            throw new IOException("record of <" + record.length + "> bytes does not fit a spill segment");
+        }
+        if (!hasCapacity(record.length)) {
+            throw new IOException("spill of <[" + directory + "]> is full at <" + maxBytes + "> bytes");
+        }
+
+        Segment tail = segments.peekLast();
+        if (tail == null || tail.writePosition + size > tail.size) {
+            if (tail != null && tail.isCommitted()) {
+                segments.removeLast();
+                tail.delete();
+            }
+            else if (tail != null) {
+                // rotated segment is complete
+                tail.buffer.force();
+            }
+            tail = newSegment();
+        }
+
+        MappedByteBuffer buffer = tail.buffer;
+        int position = tail.writePosition;
+        // payload and crc before the length, a record is intact only once all are written
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(position + RECORD_HEADER);
+        payload.put(record, 0, record.length);
+        crc32.reset();
+        crc32.update(record, 0, record.length);
+        buffer.putInt(position + Integer.BYTES, (int) crc32.getValue());
+        buffer.putInt(position, record.length);
+        tail.writePosition = position + size;
+        unreadBytes = unreadBytes + size;
+
+        if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+            buffer.force();
+        }
+        else {
+            dirty = true;
+        }
+    }
+
+    FsyncPolicy fsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    /**
+     * @return milliseconds between calls to {@link #sync()} with {@link FsyncPolicy#INTERVAL}
+     */
+    long fsyncInterval() {
+        return fsyncInterval;
+    }
+
+    /**
+     * Forces the records and committed positions written since the previous fsync.
+     */
+    void sync() {
+        if (!dirty) {
+            return;
+        }
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+        dirty = false;
+    }
+
+    private Segment newSegment() throws IOException {
+        Path path = directory.resolve(String.format("segment-%020d.spill", nextSequence));
+        nextSequence++;
+        Segment segment = new Segment(path, segmentSize);
+        segment.buffer.putInt(0, MAGIC);
+        segment.buffer.putInt(Integer.BYTES, SEGMENT_HEADER);
+        segment.committedPosition = SEGMENT_HEADER;
+        segment.readPosition = SEGMENT_HEADER;
+        segment.writePosition = SEGMENT_HEADER;
+        segments.add(segment);
+        return segment;
+    }
+
+    /**
+     * @return the oldest unread record, the remainder of a segment is skipped if a record in it fails the CRC check
+     * @throws IOException if nothing is left to read
+     */
+    SpilledRecord read() throws IOException {
+        while (true) {
+            Segment segment = firstUnread();
+            if (segment == null) {
+                throw new IOException("no records spilled in <[" + directory + "]>");
+            }
+
+            int position = segment.readPosition;
+            int length = segment.buffer.getInt(position);
+            if (length > 0 && position + RECORD_HEADER + length <= segment.writePosition) {
+                byte[] record = new byte[length];
+                ByteBuffer payload = segment.buffer.duplicate();
+                payload.position(position + RECORD_HEADER);
+                payload.get(record, 0, length);
+                crc32.reset();
+                crc32.update(record, 0, length);
+                if (segment.buffer.getInt(position + Integer.BYTES) == (int) crc32.getValue()) {
+                    segment.readPosition = position + RECORD_HEADER + length;
+                    unreadBytes = unreadBytes - RECORD_HEADER - length;
+                    SpilledRecord spilledRecord = new SpilledRecord(record, segment, segment.readPosition);
+                    uncommitted.add(spilledRecord);
+                    return spilledRecord;
+                }
+            }
+
+            LOGGER
+                    .error(
+                            "Discarding <{}> bytes of spill segment <[{}]> after a record failing the CRC check",
+                            segment.writePosition - position, segment.path
+                    );
+            unreadBytes = unreadBytes - (segment.writePosition - position);
+            segment.readPosition = segment.writePosition;
+            SpilledRecord discarded = new SpilledRecord(new byte[0], segment, segment.readPosition);
+            uncommitted.add(discarded);
+            commit(discarded);
+        }
+    }
+
+    private Segment firstUnread() {
+        for (Segment segment : segments) {
+            if (segment.readPosition < segment.writePosition) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Marks the record as acknowledged by the target. The committed position advances over the records committed in the
+     * order they were read.
+     */
+    void commit(SpilledRecord spilledRecord) throws IOException {
+        spilledRecord.committed = true;
+        Segment advanced = null;
+        while (!uncommitted.isEmpty() && uncommitted.peekFirst().committed) {
+            SpilledRecord first = uncommitted.removeFirst();
+            first.segment.committedPosition = first.endPosition;
+            first.segment.buffer.putInt(Integer.BYTES, first.endPosition);
+            advanced = first.segment;
+        }
+        if (advanced != null && (!advanced.isCommitted() || advanced == segments.peekLast())) {
+            // older segments committed completely are deleted below
+            if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+                advanced.buffer.force();
+            }
+            else {
+                dirty = true;
+            }
+        }
+
+        Segment head = segments.peekFirst();
+        while (head != null && head.isCommitted() && head != segments.peekLast()) {
+            segments.removeFirst();
+            head.delete();
+            head = segments.peekFirst();
+        }
+    }
+
+    boolean isEmpty() {
+        return unreadBytes == 0;
+    }
+
+    /**
+     * @return bytes of unread records, including record headers
+     */
+    long bytes() {
+        return unreadBytes;
+    }
+
+    /**
+     * @return bytes taken by the segment files
+     */
+    long diskBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes = bytes + segment.size;
+        }
+        return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+            segment.fileChannel.close();
+        }
+    }
+
+    /**
+     * Record read from the store, to be committed once acknowledged.
+     */
+    static final class SpilledRecord {
+
+        final byte[] record;
+        private final Segment segment;
+        private final int endPosition;
+        private boolean committed;
+
+        private SpilledRecord(byte[] record, Segment segment, int endPosition) {
+            this.record = record;
+            this.segment = segment;
+            this.endPosition = endPosition;
+            this.committed = false;
+        }
+    }
+
+    private static final class Segment {
+
+        private final Path path;
+        private final FileChannel fileChannel;
+        private final MappedByteBuffer buffer;
+        // bytes in the segment file
+        private final int size;
+        private int committedPosition;
+        private int readPosition;
+        private int writePosition;
+
+        private Segment(Path path, int size) throws IOException {
+            this.path = path;
+            this.fileChannel = FileChannel
+                    .open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // extends a new file with zeroes
+            this.buffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            this.size = size;
+        }
+
+        private boolean isCommitted() {
+            return committedPosition == writePosition;
+        }
+
+        private void delete() throws IOException {
+            fileChannel.close();
+            Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import com.teragrep.cfe_35.router.relp.RelpPayload;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parallel connections to a single endpoint, each an {@link Output} of its own. Records are striped over the
+ * connections by the {@link StripingPolicy} of the target.
+ */
+final class StripedOutput implements AutoCloseable {
+
+    private final List<Output> outputs;
+    private final StripingPolicy stripingPolicy;
+    private final AtomicInteger next;
+
+    StripedOutput(List<Output> outputs, StripingPolicy stripingPolicy) {
+        if (outputs.isEmpty()) {
+            throw new IllegalArgumentException("no connections");
+        }
+        this.outputs = outputs;
+        this.stripingPolicy = stripingPolicy;
+        this.next = new AtomicInteger(0);
+    }
+
+    /**
+     * @see Output#send(RelpPayload)
+     */
+    CompletableFuture<Void> send(RelpPayload payload) {
+        if (outputs.size() == 1) {
+            return outputs.get(0).send(payload);
+        }
+        return outputs.get(stripe(payload)).send(payload);
+    }
+
+    /**
+     * Records of each connection are sent together.
+     *
+     * @see Output#send(List)
+     */
+    List<CompletableFuture<Void>> send(List<RelpPayload> payloads) {
+        if (outputs.size() == 1) {
+            return outputs.get(0).send(payloads);
+        }
+        List<List<RelpPayload>> striped = new ArrayList<>(outputs.size());
+        List<List<Integer>> positions = new ArrayList<>(outputs.size());
+        for (int i = 0; i < outputs.size(); i++) {
+            striped.add(new ArrayList<>());
+            positions.add(new ArrayList<>());
+        }
+        for (int i = 0; i < payloads.size(); i++) {
+            int stripe = stripe(payloads.get(i));
+            striped.get(stripe).add(payloads.get(i));
+            positions.get(stripe).add(i);
+        }
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>(Collections.nCopies(payloads.size(), null));
+        for (int stripe = 0; stripe < outputs.size(); stripe++) {
+            if (striped.get(stripe).isEmpty()) {
+                continue;
+            }
+            List<CompletableFuture<Void>> sent = outputs.get(stripe).send(striped.get(stripe));
+            for (int i = 0; i < sent.size(); i++) {
+                futures.set(positions.get(stripe).get(i), sent.get(i));
+            }
+        }
+        return futures;
+    }
+
+    private int stripe(RelpPayload payload) {
+        if (stripingPolicy == StripingPolicy.HOST) {
+            return stripe(payload.data(), outputs.size());
+        }
+        return Math.floorMod(next.getAndIncrement(), outputs.size());
+    }
+
+    /**
+     * Stripe of the HOSTNAME of an RFC5424 record: PRI VERSION SP TIMESTAMP SP HOSTNAME SP. Records without one all go
+     * to the first stripe.
+     */
+    static int stripe(byte[] syslogMessage, int stripes) {
+        int hostnameStart = -1;
+        int spaces = 0;
+        int hash = 0;
+        for (int i = 0; i < syslogMessage.length; i++) {
+            if (syslogMessage[i] == ' ') {
+                spaces++;
+                if (spaces == 2) {
+                    hostnameStart = i + 1;
+                }
+                else if (spaces == 3) {
+                    return Math.floorMod(hash, stripes);
+                }
+            }
+            else if (hostnameStart != -1) {
+                hash = 31 * hash + syslogMessage[i];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return true if any of the connections is up
+     */
+    boolean isConnected() {
+        for (Output output : outputs) {
+            if (output.isConnected()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return false while the circuits of all the connections are open
+     */
+    boolean isAvailable() {
+        for (Output output : outputs) {
+            if (output.isAvailable()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return records queued or waiting for acknowledgement on all the connections
+     */
+    int outstanding() {
+        int outstanding = 0;
+        for (Output output : outputs) {
+            outstanding = outstanding + output.outstanding();
+        }
+        return outstanding;
+    }
+
+    @Override
+    public void close() {
+        for (Output output : outputs) {
+            output.close();
+        }
+    }
+}
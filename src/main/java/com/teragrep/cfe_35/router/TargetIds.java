@@ -0,0 +1,143 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import com.teragrep.cfe_35.config.RoutingConfig;
+import com.teragrep.cfe_35.router.targets.DeadLetter;
+import com.teragrep.cfe_35.router.targets.Inspection;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Small integer ids of the targets, assigned in the order of the targets config when it is loaded. Names the lookups
+ * return that are not configured get the next free id.
+ */
+final class TargetIds {
+
+    private final Map<String, Integer> ids;
+    private volatile String[] names;
+
+    TargetIds(RoutingConfig routingConfig) {
+        this(routingConfig.getTargetConfigMap().keySet());
+    }
+
+    TargetIds(Collection<String> targets) {
+        this.ids = new ConcurrentHashMap<>();
+        this.names = new String[0];
+        for (String target : targets) {
+            intern(target);
+        }
+        intern(new DeadLetter().name);
+        intern(new Inspection().name);
+    }
+
+    /**
+     * @return id of the target, assigning one if it has none yet
+     */
+    int intern(String target) {
+        Integer id = ids.get(target);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(target);
+            if (id == null) {
+                id = names.length;
+                String[] grown = Arrays.copyOf(names, id + 1);
+                grown[id] = target;
+                names = grown;
+                ids.put(target, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * @return id of the target, -1 if it has none
+     */
+    int id(String target) {
+        Integer id = ids.get(target);
+        return id == null ? -1 : id;
+    }
+
+    String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * @return count of ids assigned so far
+     */
+    int size() {
+        return names.length;
+    }
+
+    /**
+     * @return the targets as a set of ids of this table, to be created when a routing decision is made and not per
+     *         record
+     */
+    TargetSet of(Set<String> targets) {
+        if (targets instanceof TargetSet && ((TargetSet) targets).targetIds == this) {
+            return (TargetSet) targets;
+        }
+        int[] targetIds = new int[targets.size()];
+        int maxId = -1;
+        int i = 0;
+        for (String target : targets) {
+            targetIds[i] = intern(target);
+            maxId = Math.max(maxId, targetIds[i]);
+            i++;
+        }
+        long[] words = new long[(maxId >> 6) + 1];
+        for (int targetId : targetIds) {
+            words[targetId >> 6] |= 1L << targetId;
+        }
+        return new TargetSet(this, words);
+    }
+}
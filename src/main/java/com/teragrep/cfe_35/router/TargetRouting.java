@@ -45,9 +45,41 @@
  */
 package com.teragrep.cfe_35.router;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 public interface TargetRouting extends AutoCloseable {
 
-    void route(RoutingData routingData);
+    /**
+     * Hands the record to its targets without waiting for them.
+     *
+     * @return future completing once every target has acknowledged the record
+     * @throws IllegalArgumentException if a target does not exist
+     */
+    CompletableFuture<Void> route(RoutingData routingData);
+
+    /**
+     * Hands the records to their targets without waiting for them, a record with a target that does not exist does not
+     * prevent routing the others.
+     *
+     * @return futures completing once every target has acknowledged the record, in the order of the records, completed
+     *         exceptionally with {@link IllegalArgumentException} for records with a target that does not exist
+     */
+    default List<CompletableFuture<Void>> route(List<RoutingData> routingDataList) {
+        List<CompletableFuture<Void>> routed = new ArrayList<>(routingDataList.size());
+        for (RoutingData routingData : routingDataList) {
+            try {
+                routed.add(route(routingData));
+            }
+            catch (IllegalArgumentException e) {
+                CompletableFuture<Void> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                routed.add(failed);
+            }
+        }
+        return routed;
+    }
 
     @Override
     void close();
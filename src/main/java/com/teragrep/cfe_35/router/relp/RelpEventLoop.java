@@ -0,0 +1,305 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router.relp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single thread multiplexing the connections of many outputs with one selector. Channel events, tasks submitted from
+ * other threads and scheduled tasks all run on the thread of the loop, so the state they touch needs no locking.
+ * Futures handed out to other threads are completed on a separate completion thread of the loop, so that their
+ * dependent actions, such as acknowledging a client or journaling a completion, never hold up the connections.
+ */
+public final class RelpEventLoop implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RelpEventLoop.class);
+
+    /**
+     * Receives the events of a registered channel.
+     */
+    public interface ChannelHandler {
+
+        void handle(SelectionKey selectionKey);
+    }
+
+    /**
+     * Task scheduled to run once its delay has passed, unless cancelled before.
+     */
+    public static final class ScheduledTask implements Comparable<ScheduledTask> {
+
+        private final long deadline;
+        private final long sequence;
+        private final Runnable task;
+        private boolean cancelled;
+
+        private ScheduledTask(long deadline, long sequence, Runnable task) {
+            this.deadline = deadline;
+            this.sequence = sequence;
+            this.task = task;
+            this.cancelled = false;
+        }
+
+        /**
+         * Must be called on the thread of the loop.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public int compareTo(ScheduledTask other) {
+            int byDeadline = Long.compare(deadline - other.deadline, 0);
+            if (byDeadline != 0) {
+                return byDeadline;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Runnable> tasks;
+    private final PriorityQueue<ScheduledTask> scheduledTasks;
+    private final Thread thread;
+    private final ExecutorService completions;
+    private volatile boolean running;
+    private long sequence;
+
+    public RelpEventLoop(String name) {
+        try {
+            this.selector = Selector.open();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Can't open selector for <[" + name + "]>", e);
+        }
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.scheduledTasks = new PriorityQueue<>();
+        this.running = true;
+        this.sequence = 0;
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.completions = Executors.newSingleThreadExecutor(runnable -> {
+            Thread completionThread = new Thread(runnable, name + "-completions");
+            completionThread.setDaemon(true);
+            return completionThread;
+        });
+        this.thread.start();
+    }
+
+    /**
+     * Runs the task on the completion thread of the loop, after the tasks passed before it. Once the loop is closed the
+     * task runs on the calling thread. May be called from any thread.
+     */
+    public void executeCompletion(Runnable task) {
+        try {
+            completions.execute(task);
+        }
+        catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    /**
+     * Runs the task on the thread of the loop, after the tasks submitted before it. May be called from any thread.
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Must be called on the thread of the loop.
+     *
+     * @param delay milliseconds to wait before running the task
+     */
+    public ScheduledTask schedule(Runnable task, long delay) {
+        ScheduledTask scheduledTask = new ScheduledTask(
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay)),
+                sequence++,
+                task
+        );
+        scheduledTasks.add(scheduledTask);
+        return scheduledTask;
+    }
+
+    /**
+     * Must be called on the thread of the loop.
+     */
+    public SelectionKey register(SelectableChannel channel, int interestOps, ChannelHandler channelHandler)
+            throws ClosedChannelException {
+        return channel.register(selector, interestOps, channelHandler);
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                long timeout = runScheduledTasks();
+                if (!tasks.isEmpty()) {
+                    selector.selectNow();
+                }
+                else {
+                    // zero waits until woken up
+                    selector.select(timeout);
+                }
+                handleSelectedKeys();
+                runTasks();
+            }
+            catch (IOException e) {
+                LOGGER.error("Exception in event loop <[{}]>", thread.getName(), e);
+            }
+        }
+        try {
+            selector.close();
+        }
+        catch (IOException e) {
+            LOGGER.warn("Exception while closing selector of <[{}]>", thread.getName(), e);
+        }
+    }
+
+    /**
+     * @return milliseconds until the next scheduled task is due, zero if none are scheduled
+     */
+    private long runScheduledTasks() {
+        while (!scheduledTasks.isEmpty()) {
+            ScheduledTask next = scheduledTasks.peek();
+            if (next.cancelled) {
+                scheduledTasks.poll();
+                continue;
+            }
+            long remaining = next.deadline - System.nanoTime();
+            if (remaining > 0) {
+                // rounded up so that the task is due once woken up
+                return Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining + TimeUnit.MILLISECONDS.toNanos(1) - 1));
+            }
+            scheduledTasks.poll();
+            runSafely(next.task);
+        }
+        return 0;
+    }
+
+    private void handleSelectedKeys() {
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey selectionKey = iterator.next();
+            iterator.remove();
+            if (!selectionKey.isValid()) {
+                continue;
+            }
+            ChannelHandler channelHandler = (ChannelHandler) selectionKey.attachment();
+            runSafely(() -> channelHandler.handle(selectionKey));
+        }
+    }
+
+    private void runTasks() {
+        // only the tasks present now, tasks submitted meanwhile run on the next round
+        int count = tasks.size();
+        for (int i = 0; i < count; i++) {
+            Runnable task = tasks.poll();
+            if (task == null) {
+                break;
+            }
+            runSafely(task);
+        }
+    }
+
+    private void runSafely(Runnable task) {
+        try {
+            task.run();
+        }
+        catch (RuntimeException e) {
+            LOGGER.error("Exception while running a task in event loop <[{}]>", thread.getName(), e);
+        }
+    }
+
+    /**
+     * Stops the loop once the completions passed to it have run, the channels registered to it must be closed by their
+     * owners.
+     */
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        if (!inEventLoop()) {
+            try {
+                thread.join();
+            }
+            catch (InterruptedException e) {
+                LOGGER.warn("Interrupted while closing event loop <[{}]>", thread.getName(), e);
+                Thread.currentThread().interrupt();
+            }
+        }
+        completions.shutdown();
+        try {
+            if (!completions.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOGGER.warn("Completions of event loop <[{}]> did not finish", thread.getName());
+            }
+        }
+        catch (InterruptedException e) {
+            LOGGER.warn("Interrupted while closing event loop <[{}]>", thread.getName(), e);
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router.relp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Non-blocking RELP client connection. Never waits, the owner drives it from the events of a {@link RelpEventLoop}:
+ * requests are queued for writing and written as far as the socket takes them, responses are parsed from whatever has
+ * arrived. The RelpConnection of rlp_01 blocks a thread per connection until its batch is acknowledged, and rlp_03
+ * provides only the server side, so neither can share a selector between outputs.
+ */
+public final class RelpLink implements AutoCloseable {
+
+    private static final RelpPayload OFFER = new RelpPayload(
+            "relp_version=0\nrelp_software=cfe_35\ncommands=syslog".getBytes(StandardCharsets.US_ASCII)
+    );
+    private static final RelpPayload EMPTY = new RelpPayload(new byte[0]);
+    private static final int MAX_TXNR = 999999999;
+    // reads per readable event, leaves the loop to the other connections under load
+    private static final int MAX_READS = 16;
+
+    private final String address;
+    private final int port;
+
+    private final SocketChannel socketChannel;
+    private final ByteBuffer readBuffer;
+    private final RelpResponseParser relpResponseParser;
+    // buffers queued for writing, the unwritten ones from writeOffset to writeEnd, reused across flushes
+    private ByteBuffer[] pendingWrites;
+    private int writeOffset;
+    private int writeEnd;
+    private boolean endOfStream;
+    private int txnr;
+
+    public RelpLink(String address, int port) throws IOException {
+        this.address = address;
+        this.port = port;
+
+        this.socketChannel = SocketChannel.open();
+        this.readBuffer = ByteBuffer.allocate(64 * 1024);
+        this.relpResponseParser = new RelpResponseParser();
+        this.pendingWrites = new ByteBuffer[64];
+        this.writeOffset = 0;
+        this.writeEnd = 0;
+        this.endOfStream = false;
+        this.txnr = 0;
+    }
+
+    /**
+     * Starts connecting, finished with {@link #finishConnect()} once the channel is connectable.
+     *
+     * @return true if connected already
+     * @throws java.nio.channels.UnresolvedAddressException if the address can't be resolved
+     */
+    public boolean connect() throws IOException {
+        socketChannel.configureBlocking(false);
+        socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        socketChannel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+        return socketChannel.connect(new InetSocketAddress(address, port));
+    }
+
+    /**
+     * @return true once connected
+     */
+    public boolean finishConnect() throws IOException {
+        return socketChannel.finishConnect();
+    }
+
+    public SocketChannel channel() {
+        return socketChannel;
+    }
+
+    /**
+     * @return request with the next transaction number of this session
+     */
+    public RelpRequest request(String command, RelpPayload payload) {
+        if (txnr == MAX_TXNR) {
+            txnr = 1;
+        }
+        else {
+            txnr++;
+        }
+        return new RelpRequest(txnr, command, payload);
+    }
+
+    /**
+     * @return open request negotiating the session
+     */
+    public RelpRequest openRequest() {
+        return request("open", OFFER);
+    }
+
+    /**
+     * @return close request ending the session, the connection must not have requests in flight
+     */
+    public RelpRequest closeRequest() {
+        return request("close", EMPTY);
+    }
+
+    /**
+     * Queues the requests for writing, written by {@link #flush()}.
+     */
+    public void enqueue(List<RelpRequest> requests) {
+        for (RelpRequest request : requests) {
+            for (ByteBuffer buffer : request.toByteBuffers()) {
+                if (writeEnd == pendingWrites.length) {
+                    makeRoom();
+                }
+                pendingWrites[writeEnd++] = buffer;
+            }
+        }
+    }
+
+    /**
+     * Moves the unwritten buffers to the start of the array, growing it if they fill more than half of it.
+     */
+    private void makeRoom() {
+        int unwritten = writeEnd - writeOffset;
+        if (unwritten > pendingWrites.length / 2) {
+            pendingWrites = Arrays.copyOfRange(pendingWrites, writeOffset, writeOffset + pendingWrites.length * 2);
+        }
+        else {
+            System.arraycopy(pendingWrites, writeOffset, pendingWrites, 0, unwritten);
+            Arrays.fill(pendingWrites, unwritten, writeEnd, null);
+        }
+        writeOffset = 0;
+        writeEnd = unwritten;
+    }
+
+    /**
+     * Writes as much of the queued requests as the socket takes without waiting.
+     *
+     * @return bytes written
+     */
+    public long flush() throws IOException {
+        long written = 0;
+        while (writeOffset < writeEnd) {
+            long count = socketChannel.write(pendingWrites, writeOffset, writeEnd - writeOffset);
+            written = written + count;
+            while (writeOffset < writeEnd && !pendingWrites[writeOffset].hasRemaining()) {
+                // written, not kept reachable
+                pendingWrites[writeOffset++] = null;
+            }
+            if (count == 0) {
+                break;
+            }
+        }
+        if (writeOffset == writeEnd) {
+            writeOffset = 0;
+            writeEnd = 0;
+        }
+        return written;
+    }
+
+    public boolean hasPendingWrites() {
+        return writeOffset < writeEnd;
+    }
+
+    /**
+     * Reads what has arrived without waiting.
+     *
+     * @return complete responses received, possibly none
+     * @throws IOException if the response is invalid
+     */
+    public List<RelpResponse> read() throws IOException {
+        List<RelpResponse> responses = new ArrayList<>();
+        for (int i = 0; i < MAX_READS; i++) {
+            int read = socketChannel.read(readBuffer);
+            if (read < 0) {
+                endOfStream = true;
+                break;
+            }
+            if (read == 0) {
+                break;
+            }
+            readBuffer.flip();
+            try {
+                responses.addAll(relpResponseParser.parse(readBuffer));
+            }
+            catch (IllegalStateException e) {
+                throw new IOException("invalid response from <[" + address + "]>:<[" + port + "]>", e);
+            }
+            readBuffer.clear();
+        }
+        return responses;
+    }
+
+    /**
+     * @return true once the server has closed the connection, the responses read before it are still valid
+     */
+    public boolean isEndOfStream() {
+        return endOfStream;
+    }
+
+    @Override
+    public void close() {
+        try {
+            socketChannel.close();
+        }
+        catch (IOException ignored) {
+            // already torn down
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RelpLink{" + "address='" + address + '\'' + ", port=" + port + '}';
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router.relp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * DATALEN [SP DATA] part of a RELP request, encoded once per record and shared by every request carrying the record, on
+ * any number of connections. Only the TXNR SP COMMAND SP header is written per request.
+ */
+public final class RelpPayload {
+
+    private final byte[] data;
+    private final byte[] length;
+
+    /**
+     * @param data wrapped, not copied, and must not be modified afterwards
+     */
+    public RelpPayload(byte[] data) {
+        this.data = data;
+        if (data.length == 0) {
+            this.length = "0".getBytes(StandardCharsets.US_ASCII);
+        }
+        else {
+            this.length = (data.length + " ").getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    public byte[] data() {
+        return data;
+    }
+
+    /**
+     * @return buffers of the encoded length and data, new views of the shared bytes for each write
+     */
+    ByteBuffer[] toByteBuffers() {
+        return new ByteBuffer[] {
+                ByteBuffer.wrap(length), ByteBuffer.wrap(data)
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "RelpPayload{" + "dataLength=" + data.length + '}';
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router.relp;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Incremental parser for RELP responses, frames may be split across reads in any position.
+ */
+public final class RelpResponseParser {
+
+    private enum State {
+        TXNR, COMMAND, DATALEN, DATA, TRAILER
+    }
+
+    private static final int MAX_TXNR_DIGITS = 9;
+    private static final int MAX_COMMAND_LENGTH = 32;
+    private static final int MAX_DATALEN_DIGITS = 9;
+    // responses carry a status or the offers of the server, never records
+    private static final int DEFAULT_MAX_DATA_LENGTH = 128 * 1024;
+
+    private final int maxDataLength;
+
+    private State state;
+    private int txnr;
+    private int txnrDigits;
+    private final StringBuilder command;
+    private int dataLength;
+    private int dataLengthDigits;
+    private byte[] data;
+    private int dataPosition;
+
+    public RelpResponseParser() {
+        this(DEFAULT_MAX_DATA_LENGTH);
+    }
+
+    /**
+     * @param maxDataLength longest DATA accepted in a response, a longer DATALEN fails the frame before allocating it
+     */
+    public RelpResponseParser(int maxDataLength) {
+        this.maxDataLength = maxDataLength;
+        this.command = new StringBuilder();
+        reset();
+    }
+
+    private void reset() {
+        state = State.TXNR;
+        txnr = 0;
+        txnrDigits = 0;
+        command.setLength(0);
+        dataLength = 0;
+        dataLengthDigits = 0;
+        data = null;
+        dataPosition = 0;
+    }
+
+    /**
+     * Consumes all remaining bytes of the buffer.
+     *
+     * @return responses completed by the consumed bytes
+     * @throws IllegalStateException if the bytes are not a valid RELP frame
+     */
+    public List<RelpResponse> parse(ByteBuffer buffer) {
+        List<RelpResponse> responses = new ArrayList<>();
+        while (buffer.hasRemaining()) {
+            if (state == State.DATA) {
+                int length = Math.min(buffer.remaining(), dataLength - dataPosition);
+                buffer.get(data, dataPosition, length);
+                dataPosition = dataPosition + length;
+                if (dataPosition == dataLength) {
+                    state = State.TRAILER;
+                }
+                continue;
+            }
+
+            byte b = buffer.get();
+            switch (state) {
+                case TXNR:
+                    if (b == ' ' && txnrDigits > 0) {
+                        state = State.COMMAND;
+                    }
+                    else if (b >= '0' && b <= '9' && txnrDigits < MAX_TXNR_DIGITS) {
+                        txnr = txnr * 10 + (b - '0');
+                        txnrDigits++;
+                    }
+                    else {
+                        throw new IllegalStateException("invalid txnr in RELP response");
+                    }
+                    break;
+                case COMMAND:
+                    if (b == ' ' && command.length() > 0) {
+                        state = State.DATALEN;
+                    }
+                    else if (b >= 'a' && b <= 'z' && command.length() < MAX_COMMAND_LENGTH) {
+                        command.append((char) b);
+                    }
+                    else {
+                        throw new IllegalStateException("invalid command in RELP response");
+                    }
+                    break;
+                case DATALEN:
+                    if (b == '\n' && dataLengthDigits > 0 && dataLength == 0) {
+                        responses.add(new RelpResponse(txnr, command.toString(), new byte[0]));
+                        reset();
+                    }
+                    else if (b == ' ' && dataLengthDigits > 0) {
+                        data = new byte[dataLength];
+                        state = dataLength == 0 ? State.TRAILER : State.DATA;
+                    }
+                    else if (b >= '0' && b <= '9' && dataLengthDigits < MAX_DATALEN_DIGITS) {
+                        dataLength = dataLength * 10 + (b - '0');
+                        dataLengthDigits++;
+                        if (dataLength > maxDataLength) {
+                            throw new IllegalStateException(
+                                    "datalen in RELP response exceeds <" + maxDataLength + "> bytes"
+                            );
+                        }
+                    }
+                    else {
+                        throw new IllegalStateException("invalid datalen in RELP response");
+                    }
+                    break;
+                case TRAILER:
+                    if (b != '\n') {
+                        throw new IllegalStateException("invalid trailer in RELP response");
+                    }
+                    responses.add(new RelpResponse(txnr, command.toString(), data));
+                    reset();
+                    break;
+                default:
+                    throw new IllegalStateException("unexpected parser state <" + state + ">");
+            }
+        }
+        return responses;
+    }
+}
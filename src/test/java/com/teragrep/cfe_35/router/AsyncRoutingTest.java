@@ -0,0 +1,187 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import com.codahale.metrics.MetricRegistry;
+import com.teragrep.cfe_35.config.RoutingConfig;
+import com.teragrep.rlp_01.RelpCommand;
+import com.teragrep.rlp_03.channel.socket.PlainFactory;
+import com.teragrep.rlp_03.frame.delegate.DefaultFrameDelegate;
+import com.teragrep.rlp_03.frame.delegate.FrameContext;
+import com.teragrep.rlp_03.frame.delegate.FrameDelegate;
+import com.teragrep.rlp_03.frame.delegate.event.RelpEvent;
+import com.teragrep.rlp_03.frame.delegate.event.RelpEventClose;
+import com.teragrep.rlp_03.frame.delegate.event.RelpEventOpen;
+import com.teragrep.rlp_03.server.Server;
+import com.teragrep.rlp_03.server.ServerFactory;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class AsyncRoutingTest {
+
+    private final AtomicInteger spoolCount = new AtomicInteger(0);
+    private final AtomicInteger inspectionCount = new AtomicInteger(0);
+
+    // spool does not acknowledge anything until released
+    private final CountDownLatch spoolStall = new CountDownLatch(1);
+
+    private final int port = 8620;
+
+    private RoutingConfig routingConfig;
+
+    @BeforeAll
+    public void setupTargets() throws IOException {
+        setup(8621, relpFrameServerRX -> {
+            try {
+                spoolStall.await();
+            }
+            catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            spoolCount.incrementAndGet();
+        });
+        setup(8622, relpFrameServerRX -> inspectionCount.incrementAndGet());
+
+        setupTestServer();
+    }
+
+    private void setup(int port, Consumer<FrameContext> cbFunction) throws IOException {
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        ServerFactory serverFactory = new ServerFactory(
+                executorService,
+                new PlainFactory(),
+                () -> new DefaultFrameDelegate(cbFunction)
+        );
+        Server server = serverFactory.create(port);
+        Thread serverThread = new Thread(server);
+        serverThread.start();
+    }
+
+    private void setupTestServer() throws IOException {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        System.setProperty("routingTargetsConfig", "src/test/resources/targetsAsyncRoutingTest.json");
+        System.setProperty("cfe07LookupPath", "src/test/resources/cfe_07");
+        System.setProperty("cfe16LookupPath", "src/test/resources/cfe_16");
+        System.setProperty("kin02LookupPath", "src/test/resources/kin_02");
+        routingConfig = new RoutingConfig();
+        RoutingLookup routingLookup = new RoutingLookup(routingConfig);
+
+        TargetRouting targetRouting = new ParallelTargetRouting(routingConfig, metricRegistry);
+
+        Supplier<FrameDelegate> routingInstanceSupplier = () -> {
+            MessageParser messageParser = new MessageParser(
+                    routingLookup,
+                    targetRouting,
+                    metricRegistry,
+                    routingConfig
+            );
+            Map<String, RelpEvent> relpEvents = new HashMap<>();
+            relpEvents.put(RelpCommand.OPEN, new RelpEventOpen());
+            relpEvents.put(RelpCommand.CLOSE, new RelpEventClose());
+            relpEvents.put(RelpCommand.SYSLOG, new AsyncRelpEventSyslog(messageParser));
+            return new DefaultFrameDelegate(relpEvents);
+        };
+        // a single server thread
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        ServerFactory serverFactory = new ServerFactory(executorService, new PlainFactory(), routingInstanceSupplier);
+        Server server = serverFactory.create(port);
+        Thread serverThread = new Thread(server);
+        serverThread.start();
+    }
+
+    @Test
+    public void testResponseDeferred() throws Exception {
+        final String spoolRecord = "<14>1 2023-08-04T20:16:59.292Z aaa-bbb-test 578f2f4c-/bbb/test/bbb-front - - [stream-processor@48577 log-group=\"/example/logGroupName/ThatExists\" log-stream=\"task/bbb-front-service/a4b046968c23af470b6cf9db016d4583\" account=\"1234567890\"] Example";
+
+        // window allows the second record while the first is unacknowledged
+        try (
+                Output output = new Output(
+                        "test1",
+                        "localhost",
+                        port,
+                        1000,
+                        5000,
+                        1000,
+                        routingConfig.getCloseTimeout(),
+                        1000,
+                        1,
+                        Integer.MAX_VALUE,
+                        0,
+                        2,
+                        routingConfig.getCircuitBreakerFailures(),
+                        routingConfig.getCircuitBreakerOpenDuration(),
+                        new MetricRegistry()
+                )
+        ) {
+            CompletableFuture<Void> spoolResponse = output.send(spoolRecord.getBytes(StandardCharsets.UTF_8));
+
+            // the server thread is free to serve the next frame while spool is stalled
+            output.send("test".getBytes(StandardCharsets.UTF_8)).get(10, TimeUnit.SECONDS);
+            Assertions.assertEquals(1, inspectionCount.get());
+            Assertions.assertFalse(spoolResponse.isDone(), "response is sent only after the target acknowledged");
+
+            spoolStall.countDown();
+            spoolResponse.get(10, TimeUnit.SECONDS);
+            Assertions.assertEquals(1, spoolCount.get());
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CircuitBreakerTest {
+
+    private final AtomicLong now = new AtomicLong(0);
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(3, 1000, now::get);
+
+        Assertions.assertFalse(circuitBreaker.failure());
+        Assertions.assertFalse(circuitBreaker.failure());
+        circuitBreaker.success();
+        Assertions.assertFalse(circuitBreaker.failure());
+        Assertions.assertFalse(circuitBreaker.failure());
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.state());
+
+        Assertions.assertTrue(circuitBreaker.failure());
+        Assertions.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.state());
+        Assertions.assertFalse(circuitBreaker.allowAttempt());
+        Assertions.assertEquals(1000, circuitBreaker.openRemaining());
+    }
+
+    @Test
+    public void testHalfOpenAfterOpenDuration() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 1000, now::get);
+        Assertions.assertTrue(circuitBreaker.failure());
+
+        now.set(999);
+        Assertions.assertFalse(circuitBreaker.allowAttempt());
+        Assertions.assertEquals(1, circuitBreaker.openRemaining());
+
+        now.set(1000);
+        Assertions.assertTrue(circuitBreaker.allowAttempt());
+        Assertions.assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.state());
+        Assertions.assertEquals(0, circuitBreaker.openRemaining());
+    }
+
+    @Test
+    public void testHalfOpenFailureOpensAgain() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(3, 1000, now::get);
+        circuitBreaker.failure();
+        circuitBreaker.failure();
+        circuitBreaker.failure();
+
+        now.set(1500);
+        Assertions.assertTrue(circuitBreaker.allowAttempt());
+        // a single failed attempt is enough
+        Assertions.assertTrue(circuitBreaker.failure());
+        Assertions.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.state());
+        Assertions.assertEquals(1000, circuitBreaker.openRemaining());
+    }
+
+    @Test
+    public void testHalfOpenSuccessCloses() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(2, 1000, now::get);
+        circuitBreaker.failure();
+        circuitBreaker.failure();
+
+        now.set(1000);
+        Assertions.assertTrue(circuitBreaker.allowAttempt());
+        circuitBreaker.success();
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.state());
+        Assertions.assertTrue(circuitBreaker.allowAttempt());
+        Assertions.assertFalse(circuitBreaker.failure(), "failures counted from zero again");
+    }
+
+    @Test
+    public void testTrip() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(3, 1000, now::get);
+        Assertions.assertTrue(circuitBreaker.trip());
+        Assertions.assertFalse(circuitBreaker.allowAttempt());
+        Assertions.assertFalse(circuitBreaker.trip(), "already open");
+    }
+
+    @Test
+    public void testNoThreshold() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(0, 1000, now::get);
+        for (int i = 0; i < 100; i++) {
+            Assertions.assertFalse(circuitBreaker.failure());
+        }
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.state());
+
+        // the spent retry budget still opens it
+        Assertions.assertTrue(circuitBreaker.trip());
+        now.set(1000);
+        Assertions.assertTrue(circuitBreaker.allowAttempt());
+        Assertions.assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.state());
+    }
+}
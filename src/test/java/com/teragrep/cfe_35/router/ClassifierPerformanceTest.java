@@ -0,0 +1,156 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import com.codahale.metrics.MetricRegistry;
+import com.teragrep.cfe_35.config.RoutingConfig;
+import com.teragrep.cfe_35.router.targets.DeadLetter;
+import com.teragrep.cfe_35.router.targets.Inspection;
+import com.teragrep.rlo_06.RFC5424Frame;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Classification throughput of {@link RouteableRegistry} dispatch against the validate() chain of the record frames,
+ * run with -DrunPerformanceTest=true.
+ */
+@EnabledIfSystemProperty(
+        named = "runPerformanceTest",
+        matches = "true"
+)
+public class ClassifierPerformanceTest {
+
+    private static final int WARMUP_RECORDS = 1000000;
+    private static final int RECORDS = 10000000;
+
+    // cfe_07 records go through every check of the chain
+    private final byte[] record = ("<14>1 2023-08-04T20:16:59.292Z aaa-bbb-test app - - "
+            + "[origin@48577 hostname=\"aaa-bbb-test\"][event_id@48577 uuid=\"c3f13f4e\" source=\"source\"] Example")
+                    .getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void runClassify() throws IOException {
+        System.setProperty("routingTargetsConfig", "src/test/resources/targetsRecordFrameTest.json");
+        System.setProperty("cfe07LookupPath", "src/test/resources/cfe_07");
+        System.setProperty("cfe16LookupPath", "src/test/resources/cfe_16");
+        System.setProperty("kin02LookupPath", "src/test/resources/kin_02");
+        RoutingConfig routingConfig = new RoutingConfig();
+        RoutingLookup routingLookup = new RoutingLookup(routingConfig);
+
+        RFC5424Frame rfc5424Frame = new RFC5424Frame();
+        rfc5424Frame.load(new ByteArrayInputStream(record));
+        Assertions.assertTrue(rfc5424Frame.next());
+
+        KIN02RecordFrame kin02RecordFrame = new KIN02RecordFrame(
+                routingLookup,
+                rfc5424Frame,
+                routingConfig,
+                new DeadLetter(),
+                new Inspection()
+        );
+        CFE16RecordFrame cfe16RecordFrame = new CFE16RecordFrame(
+                routingLookup,
+                rfc5424Frame,
+                routingConfig,
+                new DeadLetter(),
+                new Inspection()
+        );
+        RouteableRegistry routeableRegistry = new RouteableRegistry(
+                rfc5424Frame,
+                new RecordHandler("cfe07", null, new String[0], data -> null, new MetricRegistry())
+        );
+        routeableRegistry.register(new RecordHandler("kin02", "stream-processor@48577", new String[] {
+                "account", "log-group"
+        }, kin02RecordFrame, new MetricRegistry()));
+        routeableRegistry.register(new RecordHandler("cfe16", "CFE-16-metadata@48577", new String[] {
+                "authentication_token"
+        }, cfe16RecordFrame, new MetricRegistry()));
+
+        validate(kin02RecordFrame, cfe16RecordFrame, WARMUP_RECORDS);
+        long start = System.nanoTime();
+        validate(kin02RecordFrame, cfe16RecordFrame, RECORDS);
+        report("validate() chain", System.nanoTime() - start);
+
+        dispatch(routeableRegistry, WARMUP_RECORDS);
+        start = System.nanoTime();
+        dispatch(routeableRegistry, RECORDS);
+        report("RouteableRegistry", System.nanoTime() - start);
+    }
+
+    private void validate(KIN02RecordFrame kin02RecordFrame, CFE16RecordFrame cfe16RecordFrame, int records) {
+        int cfe07 = 0;
+        for (int i = 0; i < records; i++) {
+            if (!kin02RecordFrame.validate() && !cfe16RecordFrame.validate()) {
+                cfe07++;
+            }
+        }
+        Assertions.assertEquals(records, cfe07);
+    }
+
+    private void dispatch(RouteableRegistry routeableRegistry, int records) {
+        int cfe07 = 0;
+        for (int i = 0; i < records; i++) {
+            if ("cfe07".equals(routeableRegistry.dispatch().name)) {
+                cfe07++;
+            }
+        }
+        Assertions.assertEquals(records, cfe07);
+    }
+
+    private static void report(String classifier, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out
+                .println(
+                        classifier + ": classified " + RECORDS + " records in " + seconds + "s, (" + RECORDS / seconds
+                                + " RPS)"
+                );
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DecisionCacheTest {
+
+    private static LookupKey key(String hostname, String appName) {
+        return new LookupKey(hostname.getBytes(StandardCharsets.UTF_8), appName.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long count(MetricRegistry metricRegistry, String metric) {
+        return metricRegistry.counter(MetricRegistry.name(DecisionCache.class, "<[test]>", metric)).getCount();
+    }
+
+    @Test
+    public void testHitAndMiss() {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        DecisionCache<LookupKey, String> decisionCache = new DecisionCache<>("test", 100, metricRegistry);
+        AtomicInteger decisions = new AtomicInteger();
+
+        Assertions.assertEquals("a", decisionCache.get(key("host", "app"), key -> {
+            decisions.incrementAndGet();
+            return "a";
+        }));
+        Assertions.assertEquals("a", decisionCache.get(key("host", "app"), key -> {
+            decisions.incrementAndGet();
+            return "b";
+        }));
+        // fields are not concatenated
+        Assertions.assertEquals("c", decisionCache.get(key("hos", "tapp"), key -> {
+            decisions.incrementAndGet();
+            return "c";
+        }));
+
+        Assertions.assertEquals(2, decisions.get());
+        Assertions.assertEquals(1, count(metricRegistry, "hits"));
+        Assertions.assertEquals(2, count(metricRegistry, "misses"));
+    }
+
+    @Test
+    public void testEviction() {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        DecisionCache<LookupKey, String> decisionCache = new DecisionCache<>("test", 2, metricRegistry);
+
+        decisionCache.get(key("a", ""), key -> "a");
+        decisionCache.get(key("b", ""), key -> "b");
+        // a used more recently than b
+        decisionCache.get(key("a", ""), key -> "x");
+        decisionCache.get(key("c", ""), key -> "c");
+
+        Assertions.assertEquals(2, decisionCache.size());
+        Assertions.assertEquals(1, count(metricRegistry, "evictions"));
+        Assertions.assertEquals("a", decisionCache.get(key("a", ""), key -> "x"));
+        Assertions.assertEquals("x", decisionCache.get(key("b", ""), key -> "x"));
+    }
+
+    @Test
+    public void testInvalidateAll() {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        DecisionCache<LookupKey, String> decisionCache = new DecisionCache<>("test", 100, metricRegistry);
+
+        decisionCache.get(key("host", "app"), key -> "a");
+        decisionCache.invalidateAll();
+
+        Assertions.assertEquals(0, decisionCache.size());
+        Assertions.assertEquals("b", decisionCache.get(key("host", "app"), key -> "b"));
+    }
+
+    @Test
+    public void testDisabled() {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        DecisionCache<LookupKey, String> decisionCache = new DecisionCache<>("test", 0, metricRegistry);
+
+        decisionCache.get(key("host", "app"), key -> "a");
+        Assertions.assertEquals("b", decisionCache.get(key("host", "app"), key -> "b"));
+        Assertions.assertEquals(0, decisionCache.size());
+        Assertions.assertEquals(2, count(metricRegistry, "misses"));
+    }
+}
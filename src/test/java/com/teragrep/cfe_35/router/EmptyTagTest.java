@@ -122,14 +122,9 @@ public class EmptyTagTest {
         RoutingConfig routingConfig = new RoutingConfig();
         RoutingLookup routingLookup = new RoutingLookup(routingConfig);
 
+        TargetRouting targetRouting = new ParallelTargetRouting(routingConfig, metricRegistry);
+
         Supplier<FrameDelegate> routingInstanceSupplier = () -> {
-            TargetRouting targetRouting;
-            try {
-                targetRouting = new ParallelTargetRouting(routingConfig, metricRegistry);
-            }
-            catch (IOException e) {
-                throw new RuntimeException(e);
-            }
             MessageParser messageParser = new MessageParser(
                     routingLookup,
                     targetRouting,
@@ -0,0 +1,295 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+public class JournalTest {
+
+    private static RoutingData routingData(String payload, String ... targets) {
+        return new RoutingData(payload.getBytes(StandardCharsets.UTF_8), new HashSet<>(Arrays.asList(targets)));
+    }
+
+    @Test
+    public void testIncompleteRecovered(@TempDir Path tempDir) throws Exception {
+        Journal journal = new Journal(tempDir, 1024 * 1024, Long.MAX_VALUE, true, new MetricRegistry());
+        Journal.Entry first = journal.append(routingData("first", "spool"));
+        journal.append(routingData("second", "spool", "hdfs"));
+        Journal.Entry third = journal.append(routingData("third", "siem0"));
+        journal.complete(first);
+        journal.complete(third);
+        third.durable.get(5, TimeUnit.SECONDS);
+        journal.close();
+
+        Journal reopened = new Journal(tempDir, 1024 * 1024, Long.MAX_VALUE, true, new MetricRegistry());
+        List<Journal.Entry> incomplete = reopened.incomplete();
+        Assertions.assertEquals(1, incomplete.size());
+        Assertions.assertEquals("second", new String(incomplete.get(0).routingData.payload, StandardCharsets.UTF_8));
+        Assertions.assertEquals(new HashSet<>(Arrays.asList("spool", "hdfs")), incomplete.get(0).routingData.targets);
+        reopened.close();
+    }
+
+    @Test
+    public void testTornEntryIgnored(@TempDir Path tempDir) throws Exception {
+        Journal journal = new Journal(tempDir, 1024 * 1024, Long.MAX_VALUE, false, new MetricRegistry());
+        journal.append(routingData("intact", "spool")).durable.get(5, TimeUnit.SECONDS);
+        journal.append(routingData("torn", "spool")).durable.get(5, TimeUnit.SECONDS);
+        journal.close();
+
+        Path segment = segments(tempDir).get(0);
+        byte[] content = Files.readAllBytes(segment);
+        Files.write(segment, Arrays.copyOf(content, content.length - 1));
+
+        Journal reopened = new Journal(tempDir, 1024 * 1024, Long.MAX_VALUE, false, new MetricRegistry());
+        Assertions.assertEquals(1, reopened.incomplete().size());
+        Assertions
+                .assertEquals("intact", new String(reopened.incomplete().get(0).routingData.payload, StandardCharsets.UTF_8));
+        reopened.close();
+    }
+
+    @Test
+    public void testReplay(@TempDir Path tempDir) throws Exception {
+        RecordingTargetRouting crashed = new RecordingTargetRouting();
+        JournaledTargetRouting journaled = new JournaledTargetRouting(
+                crashed,
+                new Journal(tempDir, 1024 * 1024, Long.MAX_VALUE, true, new MetricRegistry())
+        );
+        // acknowledged once on disk, targets have not confirmed yet
+        journaled.route(routingData("inflight", "spool")).get(5, TimeUnit.SECONDS);
+        CompletableFuture<Void> delivered = journaled.route(routingData("delivered", "spool"));
+        crashed.routed.get(1).complete(null);
+        delivered.get(5, TimeUnit.SECONDS);
+        journaled.close();
+
+        RecordingTargetRouting restarted = new RecordingTargetRouting(true);
+        JournaledTargetRouting replayed = new JournaledTargetRouting(
+                restarted,
+                new Journal(tempDir, 1024 * 1024, Long.MAX_VALUE, true, new MetricRegistry())
+        );
+        Assertions.assertEquals(1, restarted.payloads.size());
+        Assertions.assertEquals("inflight", restarted.payloads.get(0));
+        replayed.close();
+
+        // replayed record completed, nothing left
+        RecordingTargetRouting again = new RecordingTargetRouting(true);
+        new JournaledTargetRouting(again, new Journal(tempDir, 1024 * 1024, Long.MAX_VALUE, true, new MetricRegistry()))
+                .close();
+        Assertions.assertTrue(again.payloads.isEmpty());
+        Assertions.assertEquals(1, segments(tempDir).size(), "completed segments are deleted");
+    }
+
+    @Test
+    public void testReplayDropsRemovedTarget(@TempDir Path tempDir) throws Exception {
+        JournaledTargetRouting journaled = new JournaledTargetRouting(
+                new RecordingTargetRouting(),
+                new Journal(tempDir, 1024 * 1024, Long.MAX_VALUE, true, new MetricRegistry())
+        );
+        journaled.route(routingData("removed", "removed")).get(5, TimeUnit.SECONDS);
+        journaled.route(routingData("kept", "spool")).get(5, TimeUnit.SECONDS);
+        journaled.close();
+
+        RecordingTargetRouting restarted = new RecordingTargetRouting(true);
+        new JournaledTargetRouting(
+                restarted,
+                new Journal(tempDir, 1024 * 1024, Long.MAX_VALUE, true, new MetricRegistry())
+        ).close();
+        Assertions.assertEquals(Collections.singletonList("kept"), restarted.payloads);
+    }
+
+    @Test
+    public void testFailedRouteCarriedOver(@TempDir Path tempDir) throws Exception {
+        RecordingTargetRouting failing = new RecordingTargetRouting();
+        JournaledTargetRouting journaled = new JournaledTargetRouting(
+                failing,
+                new Journal(tempDir, 64, Long.MAX_VALUE, true, new MetricRegistry())
+        );
+        journaled.route(routingData("failed", "spool")).get(5, TimeUnit.SECONDS);
+        for (int i = 0; i < 4; i++) {
+            journaled.route(routingData("delivered" + i, "spool")).get(5, TimeUnit.SECONDS);
+        }
+        failing.routed.get(0).completeExceptionally(new IOException("target unreachable"));
+        for (int i = 1; i < failing.routed.size(); i++) {
+            failing.routed.get(i).complete(null);
+        }
+        // written after the carried record and the completions
+        Path first = segments(tempDir).get(0);
+        journaled.route(routingData("last", "spool")).get(5, TimeUnit.SECONDS);
+        journaled.close();
+        Assertions.assertFalse(Files.exists(first), "segment of the failed record is released");
+
+        RecordingTargetRouting restarted = new RecordingTargetRouting(true);
+        new JournaledTargetRouting(restarted, new Journal(tempDir, 64, Long.MAX_VALUE, true, new MetricRegistry()))
+                .close();
+        Assertions.assertEquals(Arrays.asList("failed", "last"), restarted.payloads);
+    }
+
+    @Test
+    public void testFailedRouteRetried(@TempDir Path tempDir) throws Exception {
+        RecordingTargetRouting failing = new RecordingTargetRouting();
+        JournaledTargetRouting journaled = new JournaledTargetRouting(
+                failing,
+                new Journal(tempDir, 1024 * 1024, Long.MAX_VALUE, true, new MetricRegistry()),
+                50
+        );
+        journaled.route(routingData("failed", "spool")).get(5, TimeUnit.SECONDS);
+        failing.routed.get(0).completeExceptionally(new IOException("target unreachable"));
+
+        // routed again within the run
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (failing.routed.size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(Arrays.asList("failed", "failed"), failing.payloads);
+        failing.routed.get(1).complete(null);
+        journaled.close();
+
+        RecordingTargetRouting restarted = new RecordingTargetRouting(true);
+        new JournaledTargetRouting(
+                restarted,
+                new Journal(tempDir, 1024 * 1024, Long.MAX_VALUE, true, new MetricRegistry())
+        ).close();
+        Assertions.assertTrue(restarted.payloads.isEmpty(), "retried record is complete");
+    }
+
+    @Test
+    public void testReplayFailureKept(@TempDir Path tempDir) throws Exception {
+        new JournaledTargetRouting(
+                new RecordingTargetRouting(),
+                new Journal(tempDir, 1024 * 1024, Long.MAX_VALUE, true, new MetricRegistry())
+        ).route(routingData("inflight", "spool")).get(5, TimeUnit.SECONDS);
+
+        RecordingTargetRouting failing = new RecordingTargetRouting();
+        JournaledTargetRouting replayed = new JournaledTargetRouting(
+                failing,
+                new Journal(tempDir, 1024 * 1024, Long.MAX_VALUE, true, new MetricRegistry())
+        );
+        failing.routed.get(0).completeExceptionally(new IOException("target unreachable"));
+        replayed.route(routingData("next", "spool")).get(5, TimeUnit.SECONDS);
+        replayed.close();
+
+        RecordingTargetRouting restarted = new RecordingTargetRouting(true);
+        new JournaledTargetRouting(
+                restarted,
+                new Journal(tempDir, 1024 * 1024, Long.MAX_VALUE, true, new MetricRegistry())
+        ).close();
+        Assertions.assertEquals(Arrays.asList("inflight", "next"), restarted.payloads);
+    }
+
+    @Test
+    public void testMaxBytesDropsOldest(@TempDir Path tempDir) throws Exception {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        Journal journal = new Journal(tempDir, 64, 256, true, metricRegistry);
+        for (int i = 0; i < 16; i++) {
+            journal.append(routingData("undelivered" + i, "spool")).durable.get(5, TimeUnit.SECONDS);
+        }
+        journal.close();
+
+        long bytes = 0;
+        for (Path segment : segments(tempDir)) {
+            bytes = bytes + Files.size(segment);
+        }
+        Assertions.assertTrue(bytes <= 256 + 64 + 64, "journal is bounded, was " + bytes);
+        Assertions.assertTrue(metricRegistry.counter(MetricRegistry.name(Journal.class, "dropped")).getCount() > 0);
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> segments = new ArrayList<>();
+            files.sorted().forEach(segments::add);
+            return segments;
+        }
+    }
+
+    private static final class RecordingTargetRouting implements TargetRouting {
+
+        private final boolean completing;
+        private final List<String> payloads = Collections.synchronizedList(new ArrayList<>());
+        private final List<CompletableFuture<Void>> routed = Collections.synchronizedList(new ArrayList<>());
+
+        private RecordingTargetRouting() {
+            this(false);
+        }
+
+        private RecordingTargetRouting(boolean completing) {
+            this.completing = completing;
+        }
+
+        @Override
+        public CompletableFuture<Void> route(RoutingData routingData) {
+            if (completing && routingData.targets.contains("removed")) {
+                throw new IllegalArgumentException("no such target <[removed]>");
+            }
+            payloads.add(new String(routingData.payload, StandardCharsets.UTF_8));
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            if (completing) {
+                future.complete(null);
+            }
+            routed.add(future);
+            return future;
+        }
+
+        @Override
+        public void close() {
+            // nothing to drain
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import com.codahale.metrics.MetricRegistry;
+import com.teragrep.cfe_35.router.relp.RelpEventLoop;
+import com.teragrep.rlp_03.channel.socket.PlainFactory;
+import com.teragrep.rlp_03.frame.delegate.DefaultFrameDelegate;
+import com.teragrep.rlp_03.server.Server;
+import com.teragrep.rlp_03.server.ServerFactory;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class OutputBatchTest {
+
+    private final int port = 8665;
+
+    @Test
+    public void testFullByRecords() {
+        OutputBatch outputBatch = new OutputBatch(2, Integer.MAX_VALUE, 60000);
+        outputBatch.add(new PendingRecord("one".getBytes(StandardCharsets.UTF_8)));
+        Assertions.assertFalse(outputBatch.isFull());
+
+        outputBatch.add(new PendingRecord("two".getBytes(StandardCharsets.UTF_8)));
+        Assertions.assertTrue(outputBatch.isFull());
+        Assertions.assertEquals(2, outputBatch.size());
+        Assertions.assertEquals(6, outputBatch.bytes());
+    }
+
+    @Test
+    public void testSealedAtMaxRecords() {
+        OutputBatch outputBatch = new OutputBatch(2, Integer.MAX_VALUE, 60000);
+        outputBatch.add(new PendingRecord("one".getBytes(StandardCharsets.UTF_8)));
+        outputBatch.add(new PendingRecord("two".getBytes(StandardCharsets.UTF_8)));
+        Assertions
+                .assertThrows(
+                        IllegalStateException.class,
+                        () -> outputBatch.add(new PendingRecord("three".getBytes(StandardCharsets.UTF_8)))
+                );
+        Assertions.assertEquals(2, outputBatch.size());
+    }
+
+    @Test
+    public void testAppendsDuringCommit() throws Exception {
+        // nothing is acknowledged until released
+        CountDownLatch stall = new CountDownLatch(1);
+        AtomicInteger receivedCount = new AtomicInteger(0);
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        ServerFactory serverFactory = new ServerFactory(
+                executorService,
+                new PlainFactory(),
+                () -> new DefaultFrameDelegate(relpFrameServerRX -> {
+                    try {
+                        stall.await();
+                    }
+                    catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    receivedCount.incrementAndGet();
+                })
+        );
+        Server server = serverFactory.create(port);
+        Thread serverThread = new Thread(server);
+        serverThread.start();
+
+        MetricRegistry metricRegistry = new MetricRegistry();
+        try (RelpEventLoop eventLoop = new RelpEventLoop("batch-test")) {
+            try (
+                    Output output = new Output(
+                            "batch",
+                            "localhost",
+                            port,
+                            1000,
+                            10000,
+                            1000,
+                            10000,
+                            4,
+                            Integer.MAX_VALUE,
+                            0,
+                            8,
+                            0,
+                            new OutputQueue("batch", 1000, metricRegistry),
+                            new CircuitBreaker(0, 1000),
+                            new ReconnectBackoff(100, 100, -1),
+                            eventLoop,
+                            metricRegistry
+                    )
+            ) {
+                List<CompletableFuture<Void>> responses = new ArrayList<>();
+                responses.add(output.send("first".getBytes(StandardCharsets.UTF_8)));
+                // appended while the first commit is in flight
+                for (int i = 0; i < 40; i++) {
+                    responses.add(output.send(("record-" + i).getBytes(StandardCharsets.UTF_8)));
+                }
+                Thread.sleep(100);
+                Assertions.assertEquals(0, receivedCount.get());
+
+                stall.countDown();
+                CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+                Assertions.assertEquals(41, receivedCount.get());
+                Assertions
+                        .assertEquals(
+                                4, metricRegistry.histogram("com.teragrep.cfe_35.router.Output.<[batch]>.batchRecords").getSnapshot().getMax()
+                        );
+            }
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testFullByBytes() {
+        OutputBatch outputBatch = new OutputBatch(100, 5, 60000);
+        outputBatch.add(new PendingRecord("one".getBytes(StandardCharsets.UTF_8)));
+        Assertions.assertFalse(outputBatch.isFull());
+
+        outputBatch.add(new PendingRecord("two".getBytes(StandardCharsets.UTF_8)));
+        Assertions.assertTrue(outputBatch.isFull());
+    }
+
+    @Test
+    public void testLinger() throws InterruptedException {
+        OutputBatch outputBatch = new OutputBatch(100, Integer.MAX_VALUE, 10);
+        Assertions.assertTrue(outputBatch.lingerRemaining() > 0, "empty batch lingers the full time");
+
+        outputBatch.add(new PendingRecord("one".getBytes(StandardCharsets.UTF_8)));
+        Thread.sleep(20);
+        Assertions.assertFalse(outputBatch.isFull());
+        Assertions.assertTrue(outputBatch.lingerRemaining() <= 0);
+    }
+
+    @Test
+    public void testLingerFromEnqueue() throws InterruptedException {
+        // linger counts from the time the record was accepted, not from the time it joined the batch
+        PendingRecord pendingRecord = new PendingRecord("one".getBytes(StandardCharsets.UTF_8));
+        Thread.sleep(20);
+
+        OutputBatch outputBatch = new OutputBatch(100, Integer.MAX_VALUE, 10);
+        outputBatch.add(pendingRecord);
+        Assertions.assertTrue(outputBatch.lingerRemaining() <= 0);
+    }
+
+    @Test
+    public void testNoLinger() {
+        OutputBatch outputBatch = new OutputBatch(100, Integer.MAX_VALUE, 0);
+        outputBatch.add(new PendingRecord("one".getBytes(StandardCharsets.UTF_8)));
+        Assertions.assertTrue(outputBatch.lingerRemaining() <= 0);
+    }
+}
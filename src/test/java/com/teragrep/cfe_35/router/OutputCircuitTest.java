@@ -0,0 +1,138 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import com.codahale.metrics.MetricRegistry;
+import com.teragrep.cfe_35.router.relp.RelpEventLoop;
+import com.teragrep.rlp_03.channel.socket.PlainFactory;
+import com.teragrep.rlp_03.frame.delegate.DefaultFrameDelegate;
+import com.teragrep.rlp_03.server.Server;
+import com.teragrep.rlp_03.server.ServerFactory;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+public class OutputCircuitTest {
+
+    private final AtomicInteger receivedCount = new AtomicInteger(0);
+
+    private final int port = 8663;
+
+    private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                Assertions.fail(message);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testOpensAndRecoversHalfOpen() throws Exception {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        try (RelpEventLoop eventLoop = new RelpEventLoop("circuit-test")) {
+            // opens after two failed connects and stays open for a second
+            try (
+                    Output output = new Output(
+                            "circuit",
+                            "localhost",
+                            port,
+                            1000,
+                            1000,
+                            1000,
+                            10000,
+                            1,
+                            Integer.MAX_VALUE,
+                            0,
+                            1,
+                            0,
+                            new OutputQueue("circuit", 1000, metricRegistry),
+                            new CircuitBreaker(2, 1000),
+                            new ReconnectBackoff(50, 50, -1),
+                            eventLoop,
+                            metricRegistry
+                    )
+            ) {
+                await(() -> !output.isAvailable(), "circuit did not open without a target");
+                Assertions
+                        .assertEquals(
+                                1, metricRegistry.counter("com.teragrep.cfe_35.router.Output.<[circuit]>.circuitOpens").getCount()
+                        );
+
+                // queued while open, sent by the half-open attempt once the target is up
+                CompletableFuture<Void> response = output.send("record".getBytes(StandardCharsets.UTF_8));
+                ExecutorService executorService = Executors.newSingleThreadExecutor();
+                ServerFactory serverFactory = new ServerFactory(
+                        executorService,
+                        new PlainFactory(),
+                        () -> new DefaultFrameDelegate(relpFrameServerRX -> receivedCount.incrementAndGet())
+                );
+                Server server = serverFactory.create(port);
+                Thread serverThread = new Thread(server);
+                serverThread.start();
+
+                response.get(10, TimeUnit.SECONDS);
+                Assertions.assertTrue(output.isAvailable());
+                Assertions.assertEquals(1, receivedCount.get());
+                Assertions
+                        .assertEquals(1, metricRegistry.counter("com.teragrep.cfe_35.router.Output.<[circuit]>.connects").getCount());
+                Assertions
+                        .assertEquals(
+                                1, metricRegistry.counter("com.teragrep.cfe_35.router.Output.<[circuit]>.circuitOpens").getCount()
+                        );
+                server.stop();
+            }
+        }
+    }
+}
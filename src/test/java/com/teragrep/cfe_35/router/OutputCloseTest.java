@@ -0,0 +1,141 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import com.codahale.metrics.MetricRegistry;
+import com.teragrep.cfe_35.router.relp.RelpEventLoop;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class OutputCloseTest {
+
+    // nothing listens here
+    private final int port = 8664;
+
+    private Output output(
+            String name,
+            OutputQueue outputQueue,
+            RelpEventLoop eventLoop,
+            MetricRegistry metricRegistry
+    ) {
+        return new Output(
+                name,
+                "localhost",
+                port,
+                1000,
+                1000,
+                1000,
+                500,
+                1,
+                Integer.MAX_VALUE,
+                0,
+                1,
+                0,
+                outputQueue,
+                new CircuitBreaker(0, 1000),
+                new ReconnectBackoff(50, 50, -1),
+                eventLoop,
+                metricRegistry
+        );
+    }
+
+    @Test
+    public void testCloseTimeoutFails() throws Exception {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        try (RelpEventLoop eventLoop = new RelpEventLoop("close-test")) {
+            Output output = output("close", new OutputQueue("close", 1000, metricRegistry), eventLoop, metricRegistry);
+            CompletableFuture<Void> response = output.send("record".getBytes(StandardCharsets.UTF_8));
+
+            long started = System.nanoTime();
+            output.close();
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            Assertions.assertTrue(elapsed >= 500 && elapsed < 5000, "close waited <" + elapsed + "> ms");
+            ExecutionException executionException = Assertions
+                    .assertThrows(ExecutionException.class, () -> response.get(5, TimeUnit.SECONDS));
+            Assertions
+                    .assertTrue(executionException.getMessage().contains("closed before the record was acknowledged"));
+        }
+    }
+
+    @Test
+    public void testCloseTimeoutSpills(@TempDir Path tempDir) throws Exception {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        try (RelpEventLoop eventLoop = new RelpEventLoop("close-spill-test")) {
+            OutputQueue outputQueue = new OutputQueue(
+                    "spill",
+                    1000,
+                    OverflowPolicy.SPILL,
+                    null,
+                    new SpillStore(tempDir, 4096, 4096, FsyncPolicy.NEVER, 0),
+                    metricRegistry
+            );
+            Output output = output("spill", outputQueue, eventLoop, metricRegistry);
+            CompletableFuture<Void> response = output.send("record".getBytes(StandardCharsets.UTF_8));
+            output.close();
+            // in custody of the spill store
+            response.get(5, TimeUnit.SECONDS);
+        }
+
+        OutputQueue reopened = new OutputQueue(
+                "spill",
+                1000,
+                OverflowPolicy.SPILL,
+                null,
+                new SpillStore(tempDir, 4096, 4096, FsyncPolicy.NEVER, 0),
+                new MetricRegistry()
+        );
+        Assertions
+                .assertEquals("record", new String(reopened.poll(5, TimeUnit.SECONDS).record, StandardCharsets.UTF_8));
+        reopened.close();
+    }
+}
@@ -78,6 +78,9 @@ public class OutputFailureTest {
         System.setProperty("kin02LookupPath", "src/test/resources/kin_02");
         System.setProperty("routingTargetsConfig", "src/test/resources/targetsOutputFailureTest.json");
         System.setProperty("listenPort", String.valueOf(port));
+        // the outputs keep retrying instead of opening their circuits while the targets are down, at the exact backoff
+        System.setProperty("circuitBreakerFailures", "0");
+        System.setProperty("reconnectJitter", "false");
 
         Thread routerServer = new Thread(() -> {
             RoutingConfig routingConfig;
@@ -129,6 +132,12 @@ public class OutputFailureTest {
         inspectionServer.stop();
     }
 
+    @AfterAll
+    public void clearProperties() {
+        System.clearProperty("circuitBreakerFailures");
+        System.clearProperty("reconnectJitter");
+    }
+
     @Test
     public void testSend() throws IOException, InterruptedException, TimeoutException {
         System.setProperty("reconnectInterval", "1000");
@@ -152,8 +161,11 @@ public class OutputFailureTest {
             }
         }
         setupTargets();
-        // Just to let the server come online
-        Thread.sleep(5000);
+        // reconnects after 5 and 10 more seconds of backoff, the second one finds the targets up
+        long deadline = System.currentTimeMillis() + 30000;
+        while (spoolList.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
         Assertions.assertEquals(spoolMessage, new String(spoolList.get(0), StandardCharsets.UTF_8));
     }
 
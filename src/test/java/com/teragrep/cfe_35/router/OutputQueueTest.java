@@ -0,0 +1,256 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import com.codahale.metrics.MetricRegistry;
+import com.teragrep.cfe_35.router.relp.RelpPayload;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+public class OutputQueueTest {
+
+    @Test
+    public void testBlock() throws Exception {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        OutputQueue outputQueue = new OutputQueue("block", 1, metricRegistry);
+        outputQueue.add("one".getBytes(StandardCharsets.UTF_8));
+
+        CompletableFuture<CompletableFuture<Void>> blocked = CompletableFuture
+                .supplyAsync(() -> outputQueue.add("two".getBytes(StandardCharsets.UTF_8)));
+        Thread.sleep(100);
+        Assertions.assertFalse(blocked.isDone(), "full queue blocks the caller");
+
+        Assertions
+                .assertEquals("one", new String(outputQueue.poll(5, TimeUnit.SECONDS).record, StandardCharsets.UTF_8));
+        blocked.get(5, TimeUnit.SECONDS);
+        Assertions
+                .assertEquals("two", new String(outputQueue.poll(5, TimeUnit.SECONDS).record, StandardCharsets.UTF_8));
+        Assertions
+                .assertEquals(1, metricRegistry.counter(name(OutputQueue.class, "<[block]>", "overflows")).getCount());
+
+        outputQueue.close();
+        Assertions.assertNull(outputQueue.poll(5, TimeUnit.SECONDS));
+        Assertions.assertThrows(IllegalStateException.class, () -> outputQueue.add(new byte[0]));
+    }
+
+    @Test
+    public void testAddAll() throws Exception {
+        OutputQueue outputQueue = new OutputQueue("addAll", 2, new MetricRegistry());
+        AtomicInteger notifications = new AtomicInteger(0);
+        outputQueue.listen(notifications::incrementAndGet);
+
+        List<RelpPayload> payloads = new ArrayList<>();
+        for (String record : new String[] {
+                "1", "2"
+        }) {
+            payloads.add(new RelpPayload(record.getBytes(StandardCharsets.UTF_8)));
+        }
+        Assertions.assertEquals(2, outputQueue.addAll(payloads).size());
+        Assertions.assertEquals(1, notifications.get(), "listener notified once for the batch");
+
+        // what does not fit blocks as with add
+        payloads.add(new RelpPayload("3".getBytes(StandardCharsets.UTF_8)));
+        CompletableFuture<List<CompletableFuture<Void>>> blocked = CompletableFuture
+                .supplyAsync(() -> outputQueue.addAll(payloads.subList(2, 3)));
+        Thread.sleep(100);
+        Assertions.assertFalse(blocked.isDone(), "full queue blocks the caller");
+
+        for (String expected : new String[] {
+                "1", "2", "3"
+        }) {
+            Assertions
+                    .assertEquals(expected, new String(outputQueue.poll(5, TimeUnit.SECONDS).record, StandardCharsets.UTF_8));
+        }
+        Assertions.assertEquals(1, blocked.get(5, TimeUnit.SECONDS).size());
+        outputQueue.close();
+    }
+
+    @Test
+    public void testSpillOrder(@TempDir Path tempDir) throws Exception {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        OutputQueue outputQueue = new OutputQueue(
+                "spill",
+                2,
+                OverflowPolicy.SPILL,
+                null,
+                new SpillStore(tempDir, 4096, 4096, FsyncPolicy.NEVER, 0),
+                metricRegistry
+        );
+
+        CompletableFuture<Void> queued = outputQueue.add("1".getBytes(StandardCharsets.UTF_8));
+        outputQueue.add("2".getBytes(StandardCharsets.UTF_8));
+        CompletableFuture<Void> spilled = outputQueue.add("3".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertFalse(queued.isDone(), "queued record waits for the target");
+        Assertions.assertTrue(spilled.isDone(), "spilled record is in custody of the spill file");
+
+        // space in memory, but records are spilled until the spill file is drained
+        Assertions.assertEquals("1", new String(outputQueue.poll(5, TimeUnit.SECONDS).record, StandardCharsets.UTF_8));
+        outputQueue.add("4".getBytes(StandardCharsets.UTF_8));
+        Assertions
+                .assertEquals(2, metricRegistry.counter(name(OutputQueue.class, "<[spill]>", "spilledRecords")).getCount());
+
+        for (String expected : new String[] {
+                "2", "3", "4"
+        }) {
+            Assertions
+                    .assertEquals(expected, new String(outputQueue.poll(5, TimeUnit.SECONDS).record, StandardCharsets.UTF_8));
+        }
+        Assertions.assertNull(outputQueue.poll(0, TimeUnit.NANOSECONDS));
+
+        // drained spill file no longer diverts
+        CompletableFuture<Void> afterDrain = outputQueue.add("5".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertFalse(afterDrain.isDone());
+        outputQueue.close();
+    }
+
+    @Test
+    public void testSpillKeptOnClose(@TempDir Path tempDir) throws Exception {
+        OutputQueue outputQueue = new OutputQueue(
+                "kept",
+                1,
+                OverflowPolicy.SPILL,
+                null,
+                new SpillStore(tempDir, 4096, 4096, FsyncPolicy.NEVER, 0),
+                new MetricRegistry()
+        );
+        outputQueue.add("1".getBytes(StandardCharsets.UTF_8));
+        outputQueue.add("2".getBytes(StandardCharsets.UTF_8));
+        outputQueue.shutdown();
+        Assertions.assertThrows(IllegalStateException.class, () -> outputQueue.add(new byte[1]));
+
+        // drained before the spill store is closed
+        PendingRecord first = outputQueue.poll(5, TimeUnit.SECONDS);
+        Assertions.assertEquals("1", new String(first.record, StandardCharsets.UTF_8));
+        Assertions.assertNull(outputQueue.poll(5, TimeUnit.SECONDS), "spilled records stay on disk");
+        first.future.complete(null);
+        outputQueue.close();
+
+        // next run continues from the spill store
+        OutputQueue reopened = new OutputQueue(
+                "kept",
+                1,
+                OverflowPolicy.SPILL,
+                null,
+                new SpillStore(tempDir, 4096, 4096, FsyncPolicy.NEVER, 0),
+                new MetricRegistry()
+        );
+        Assertions.assertEquals("2", new String(reopened.poll(5, TimeUnit.SECONDS).record, StandardCharsets.UTF_8));
+        reopened.close();
+    }
+
+    @Test
+    public void testSpillUnreachable(@TempDir Path tempDir) throws Exception {
+        OutputQueue outputQueue = new OutputQueue(
+                "unreachable",
+                10,
+                OverflowPolicy.SPILL,
+                null,
+                new SpillStore(tempDir, 4096, 4096, FsyncPolicy.NEVER, 0),
+                new MetricRegistry()
+        );
+        outputQueue.add("1".getBytes(StandardCharsets.UTF_8));
+
+        outputQueue.targetReachable(false);
+        Assertions
+                .assertTrue(outputQueue.add("2".getBytes(StandardCharsets.UTF_8)).isDone(), "spilled while unreachable");
+        outputQueue.targetReachable(true);
+
+        Assertions.assertEquals("1", new String(outputQueue.poll(5, TimeUnit.SECONDS).record, StandardCharsets.UTF_8));
+        Assertions.assertEquals("2", new String(outputQueue.poll(5, TimeUnit.SECONDS).record, StandardCharsets.UTF_8));
+        outputQueue.close();
+    }
+
+    @Test
+    public void testSpillFull(@TempDir Path tempDir) throws Exception {
+        // a single segment with space for two records
+        OutputQueue outputQueue = new OutputQueue(
+                "full",
+                1,
+                OverflowPolicy.SPILL,
+                null,
+                new SpillStore(tempDir, 8 + 2 * (8 + 100), 8 + 2 * (8 + 100), FsyncPolicy.NEVER, 0),
+                new MetricRegistry()
+        );
+        outputQueue.add(new byte[100]);
+        outputQueue.add(new byte[100]);
+        outputQueue.add(new byte[100]);
+
+        CompletableFuture<CompletableFuture<Void>> blocked = CompletableFuture
+                .supplyAsync(() -> outputQueue.add(new byte[100]));
+        Thread.sleep(100);
+        Assertions.assertFalse(blocked.isDone(), "full spill store blocks the caller");
+
+        // the segment is freed once the records in it are acknowledged
+        for (int i = 0; i < 3; i++) {
+            PendingRecord pendingRecord = outputQueue.poll(5, TimeUnit.SECONDS);
+            Assertions.assertFalse(blocked.isDone());
+            pendingRecord.future.complete(null);
+        }
+        blocked.get(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(outputQueue.poll(5, TimeUnit.SECONDS));
+        outputQueue.close();
+    }
+
+    @Test
+    public void testDeadLetterRequiresOutput() {
+        Assertions
+                .assertThrows(
+                        IllegalArgumentException.class,
+                        () -> new OutputQueue("dead", 1, OverflowPolicy.DEAD_LETTER, null, null, new MetricRegistry())
+                );
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import com.codahale.metrics.MetricRegistry;
+import com.teragrep.cfe_35.config.RoutingConfig;
+import com.teragrep.rlp_03.channel.socket.PlainFactory;
+import com.teragrep.rlp_03.frame.delegate.DefaultFrameDelegate;
+import com.teragrep.rlp_03.frame.delegate.FrameContext;
+import com.teragrep.rlp_03.server.Server;
+import com.teragrep.rlp_03.server.ServerFactory;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class OverflowTest {
+
+    private final AtomicInteger hdfsCount = new AtomicInteger(0);
+    private final AtomicInteger deadLetterCount = new AtomicInteger(0);
+
+    // hdfs does not acknowledge anything until released
+    private final CountDownLatch hdfsStall = new CountDownLatch(1);
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    @BeforeAll
+    public void setupTargets() throws IOException {
+        setup(8631, relpFrameServerRX -> {
+            try {
+                hdfsStall.await();
+            }
+            catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            hdfsCount.incrementAndGet();
+        });
+        setup(8632, relpFrameServerRX -> deadLetterCount.incrementAndGet());
+    }
+
+    private void setup(int port, Consumer<FrameContext> cbFunction) throws IOException {
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        ServerFactory serverFactory = new ServerFactory(
+                executorService,
+                new PlainFactory(),
+                () -> new DefaultFrameDelegate(cbFunction)
+        );
+        Server server = serverFactory.create(port);
+        Thread serverThread = new Thread(server);
+        serverThread.start();
+    }
+
+    @Test
+    public void testDeadLetterOverflow() throws Exception {
+        System.setProperty("routingTargetsConfig", "src/test/resources/targetsOverflowTest.json");
+        RoutingConfig routingConfig = new RoutingConfig();
+
+        int records = 10;
+
+        try (TargetRouting targetRouting = new ParallelTargetRouting(routingConfig, this.metricRegistry)) {
+            List<CompletableFuture<Void>> routed = new ArrayList<>();
+            for (int i = 0; i < records; i++) {
+                routed
+                        .add(targetRouting.route(new RoutingData(("record-" + i).getBytes(StandardCharsets.UTF_8), Collections.singleton("hdfs"))));
+            }
+
+            // hdfs holds at most one record in flight, one waiting for the window and one queued
+            int diverted = records - 3;
+            long deadline = System.currentTimeMillis() + 10000;
+            while (deadLetterCount.get() < diverted && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assertions.assertTrue(deadLetterCount.get() >= diverted);
+            Assertions.assertEquals(0, hdfsCount.get());
+
+            hdfsStall.countDown();
+            CompletableFuture.allOf(routed.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+        }
+
+        Assertions.assertEquals(records, hdfsCount.get() + deadLetterCount.get());
+        Assertions
+                .assertEquals(
+                        deadLetterCount.get(),
+                        metricRegistry.counter(name(OutputQueue.class, "<[hdfs]>", "divertedRecords")).getCount()
+                );
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import com.teragrep.rlo_06.RFC5424Frame;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parse throughput of a reused {@link PayloadInputStream} against a ByteArrayInputStream per record, run with
+ * -DrunPerformanceTest=true.
+ */
+@EnabledIfSystemProperty(
+        named = "runPerformanceTest",
+        matches = "true"
+)
+public class ParsePerformanceTest {
+
+    private static final int WARMUP_RECORDS = 1000000;
+    private static final int RECORDS = 5000000;
+
+    private final byte[] record = ("<14>1 2023-08-04T20:16:59.292Z aaa-bbb-test 578f2f4c-/bbb/test/bbb-front - - "
+            + "[stream-processor@48577 log-group=\"/example/logGroupName/ThatExists\" "
+            + "log-stream=\"task/bbb-front-service/a4b046968c23af470b6cf9db016d4583\" account=\"1234567890\"] Example")
+                    .getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void runParse() {
+        RFC5424Frame rfc5424Frame = new RFC5424Frame();
+
+        parseByteArrayInputStream(rfc5424Frame, WARMUP_RECORDS);
+        long start = System.nanoTime();
+        parseByteArrayInputStream(rfc5424Frame, RECORDS);
+        report("ByteArrayInputStream per record", System.nanoTime() - start);
+
+        PayloadInputStream payloadInputStream = new PayloadInputStream();
+        parsePayloadInputStream(rfc5424Frame, payloadInputStream, WARMUP_RECORDS);
+        start = System.nanoTime();
+        parsePayloadInputStream(rfc5424Frame, payloadInputStream, RECORDS);
+        report("PayloadInputStream reused", System.nanoTime() - start);
+    }
+
+    private void parseByteArrayInputStream(RFC5424Frame rfc5424Frame, int records) {
+        for (int i = 0; i < records; i++) {
+            rfc5424Frame.load(new ByteArrayInputStream(record));
+            Assertions.assertTrue(rfc5424Frame.next());
+        }
+    }
+
+    private void parsePayloadInputStream(
+            RFC5424Frame rfc5424Frame,
+            PayloadInputStream payloadInputStream,
+            int records
+    ) {
+        for (int i = 0; i < records; i++) {
+            payloadInputStream.load(record);
+            rfc5424Frame.load(payloadInputStream);
+            Assertions.assertTrue(rfc5424Frame.next());
+        }
+    }
+
+    private static void report(String input, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out
+                .println(input + ": parsed " + RECORDS + " records in " + seconds + "s, (" + RECORDS / seconds + " RPS)");
+    }
+}
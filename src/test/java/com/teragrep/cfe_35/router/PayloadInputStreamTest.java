@@ -0,0 +1,94 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class PayloadInputStreamTest {
+
+    @Test
+    public void testRead() {
+        PayloadInputStream payloadInputStream = new PayloadInputStream();
+        Assertions.assertEquals(-1, payloadInputStream.read());
+
+        payloadInputStream.load(new byte[] {
+                1, (byte) 0xFF
+        });
+        Assertions.assertEquals(2, payloadInputStream.available());
+        Assertions.assertEquals(1, payloadInputStream.read());
+        Assertions.assertEquals(0xFF, payloadInputStream.read());
+        Assertions.assertEquals(-1, payloadInputStream.read());
+    }
+
+    @Test
+    public void testBulkRead() {
+        PayloadInputStream payloadInputStream = new PayloadInputStream();
+        payloadInputStream.load("hello".getBytes(StandardCharsets.UTF_8));
+
+        byte[] buffer = new byte[8];
+        Assertions.assertEquals(3, payloadInputStream.read(buffer, 0, 3));
+        Assertions.assertEquals(2, payloadInputStream.read(buffer, 3, 5));
+        Assertions.assertEquals("hello", new String(buffer, 0, 5, StandardCharsets.UTF_8));
+        Assertions.assertEquals(-1, payloadInputStream.read(buffer, 0, 8));
+        Assertions.assertEquals(0, payloadInputStream.read(buffer, 0, 0));
+    }
+
+    @Test
+    public void testReload() {
+        PayloadInputStream payloadInputStream = new PayloadInputStream();
+        payloadInputStream.load("first".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals(2, payloadInputStream.skip(2));
+        Assertions.assertEquals('r', payloadInputStream.read());
+
+        // next record starts from the beginning
+        payloadInputStream.load("second".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals('s', payloadInputStream.read());
+        Assertions.assertEquals(5, payloadInputStream.available());
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+public class ReconnectBackoffTest {
+
+    @Test
+    public void testExponentialWithinCeiling() {
+        ReconnectBackoff reconnectBackoff = new ReconnectBackoff(1000, 60000, -1, new Random(1));
+        long ceiling = 1000;
+        for (int i = 0; i < 100; i++) {
+            long delay = reconnectBackoff.nextDelay();
+            Assertions.assertTrue(delay >= 0 && delay <= ceiling, "delay <" + delay + "> over <" + ceiling + ">");
+            ceiling = Math.min(60000, ceiling * 2);
+        }
+        Assertions.assertFalse(reconnectBackoff.isExhausted());
+    }
+
+    @Test
+    public void testJitterSpreadsDelays() {
+        // once at the maximum the delays cover the whole range instead of repeating the same value
+        ReconnectBackoff reconnectBackoff = new ReconnectBackoff(1000, 1000, -1, new Random(1));
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < 1000; i++) {
+            long delay = reconnectBackoff.nextDelay();
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        Assertions.assertTrue(min < 100);
+        Assertions.assertTrue(max > 900);
+    }
+
+    @Test
+    public void testNoJitter() {
+        ReconnectBackoff reconnectBackoff = new ReconnectBackoff(100, 1000, -1);
+        long[] expected = {
+                100, 200, 400, 800, 1000, 1000
+        };
+        for (long delay : expected) {
+            Assertions.assertEquals(delay, reconnectBackoff.nextDelay());
+        }
+    }
+
+    @Test
+    public void testRetryBudget() {
+        ReconnectBackoff reconnectBackoff = new ReconnectBackoff(10, 100, 3, new Random(1));
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertFalse(reconnectBackoff.isExhausted());
+            reconnectBackoff.nextDelay();
+        }
+        Assertions.assertTrue(reconnectBackoff.isExhausted());
+
+        reconnectBackoff.reset();
+        Assertions.assertFalse(reconnectBackoff.isExhausted());
+        Assertions.assertTrue(reconnectBackoff.nextDelay() <= 10, "grows again from the initial delay");
+    }
+
+    @Test
+    public void testManyRetriesDoNotOverflow() {
+        ReconnectBackoff reconnectBackoff = new ReconnectBackoff(5000, Long.MAX_VALUE / 2, -1, new Random(1));
+        for (int i = 0; i < 200; i++) {
+            Assertions.assertTrue(reconnectBackoff.nextDelay() >= 0);
+        }
+    }
+}
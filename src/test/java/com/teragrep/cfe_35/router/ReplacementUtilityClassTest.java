@@ -45,51 +45,212 @@
  */
 package com.teragrep.cfe_35.router;
 
+import com.teragrep.cfe_35.config.RoutingConfig;
+import com.teragrep.cfe_35.router.targets.DeadLetter;
+import com.teragrep.cfe_35.router.targets.Inspection;
+import com.teragrep.rlo_06.RFC5424Facility;
 import com.teragrep.rlo_06.RFC5424Frame;
+import com.teragrep.rlo_06.RFC5424Severity;
+import com.teragrep.rlo_06.SDElement;
+import com.teragrep.rlo_06.SDParam;
+import com.teragrep.rlo_14.Facility;
+import com.teragrep.rlo_14.Severity;
+import com.teragrep.rlo_14.SyslogMessage;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 
 public class ReplacementUtilityClassTest {
 
-    @Test
-    public void testHappyReplace() throws IOException {
+    /**
+     * Rewrite of the hostname and appName as it was done before splicing, re-serializing the whole record with rlo_14.
+     */
+    private static byte[] reserialize(RFC5424Frame rfc5424Frame, String hostname, String appName) {
+        RFC5424Facility rfc5424Facility = new RFC5424Facility(rfc5424Frame.priority);
+        RFC5424Severity rfc5424Severity = new RFC5424Severity(rfc5424Frame.priority);
+
+        SyslogMessage syslogMessage = new SyslogMessage()
+                .withFacility(Facility.fromNumericalCode(rfc5424Facility.asInt()))
+                .withSeverity(Severity.fromNumericalCode(rfc5424Severity.asInt()))
+                .withTimestamp(rfc5424Frame.timestamp.toString(), true)
+                .withHostname(hostname)
+                .withAppName(appName)
+                .withProcId(rfc5424Frame.procId.toString())
+                .withMsgId(rfc5424Frame.msgId.toString())
+                .withMsg(rfc5424Frame.msg.toString());
+
+        for (SDElement sdElement : rfc5424Frame.structuredData.sdElements) {
+            com.teragrep.rlo_14.SDElement createdSdElement = new com.teragrep.rlo_14.SDElement(
+                    sdElement.sdElementId.toString()
+            );
+            for (SDParam sdParam : sdElement.sdParams) {
+                createdSdElement
+                        .addSDParam(
+                                new com.teragrep.rlo_14.SDParam(
+                                        sdParam.sdParamKey.toString(),
+                                        sdParam.sdParamValue.toString()
+                                )
+                        );
+            }
+            syslogMessage.withSDElement(createdSdElement);
+        }
+
+        return syslogMessage.toRfc5424SyslogMessage().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] splice(String message, String hostname, String appName) {
+        RewriteDecision rewriteDecision = new RewriteDecision(
+                new TargetIds(Collections.singleton("spool")).of(Collections.singleton("spool")),
+                hostname,
+                appName
+        );
+        return ReplacementUtilityClass.splice(message.getBytes(StandardCharsets.UTF_8), rewriteDecision.header);
+    }
+
+    private static RFC5424Frame frame(String message) {
         RFC5424Frame frame = new RFC5424Frame();
+        frame.load(new ByteArrayInputStream(message.getBytes(StandardCharsets.UTF_8)));
+        Assertions.assertTrue(frame.next());
+        return frame;
+    }
+
+    @Test
+    public void testHappyReplace() {
         String message = "<14>1 2023-08-23T10:21:00+03:00 old-hostname old-appname - - - msg\n";
-        InputStream inputStream = new ByteArrayInputStream(message.getBytes());
-        frame.load(inputStream);
-        frame.next();
+        RFC5424Frame frame = frame(message);
         Assertions.assertEquals("old-hostname", frame.hostname.toString(), "Hostname is not as expected");
         Assertions.assertEquals("old-appname", frame.appName.toString(), "Appname is not as expected");
-        String replacementHostname = "new-hostname";
-        String replacementAppname = "new-appname";
-        String response = new String(ReplacementUtilityClass.replace(frame, replacementHostname, replacementAppname));
+        byte[] spliced = splice(message, "new-hostname", "new-appname");
         Assertions
                 .assertEquals(
-                        "<14>1 2023-08-23T10:21:00+03:00 new-hostname new-appname - - - msg\n", response,
-                        "Response did not replace values as expected"
+                        "<14>1 2023-08-23T10:21:00+03:00 new-hostname new-appname - - - msg\n",
+                        new String(spliced, StandardCharsets.UTF_8), "Response did not replace values as expected"
                 );
+        Assertions.assertArrayEquals(reserialize(frame, "new-hostname", "new-appname"), spliced);
     }
 
     @Test
-    public void testHappyReplaceWithSDParams() throws IOException {
-        RFC5424Frame frame = new RFC5424Frame();
+    public void testHappyReplaceWithSDParams() {
         String message = "<14>1 2023-08-23T10:21:00+03:00 old-hostname old-appname - - [first@48577 key=\"value\" secret=\"sosecret\"][second@48577 test=\"true\" failed=\"false\"] msg\n";
-        InputStream inputStream = new ByteArrayInputStream(message.getBytes());
-        frame.load(inputStream);
-        frame.next();
+        RFC5424Frame frame = frame(message);
         Assertions.assertEquals("old-hostname", frame.hostname.toString(), "Hostname is not as expected");
         Assertions.assertEquals("old-appname", frame.appName.toString(), "Appname is not as expected");
-        String replacementHostname = "new-hostname";
-        String replacementAppname = "new-appname";
-        String response = new String(ReplacementUtilityClass.replace(frame, replacementHostname, replacementAppname));
+        byte[] spliced = splice(message, "new-hostname", "new-appname");
         Assertions
                 .assertEquals(
                         "<14>1 2023-08-23T10:21:00+03:00 new-hostname new-appname - - [first@48577 key=\"value\" secret=\"sosecret\"][second@48577 test=\"true\" failed=\"false\"] msg\n",
+                        new String(spliced, StandardCharsets.UTF_8), "Response did not replace values as expected"
+                );
+        Assertions.assertArrayEquals(reserialize(frame, "new-hostname", "new-appname"), spliced);
+    }
+
+    @Test
+    public void testSpliceAsReserializedFixtures() throws IOException {
+        System.setProperty("routingTargetsConfig", "src/test/resources/targetsRecordFrameTest.json");
+        System.setProperty("cfe07LookupPath", "src/test/resources/cfe_07");
+        System.setProperty("cfe16LookupPath", "src/test/resources/cfe_16");
+        System.setProperty("kin02LookupPath", "src/test/resources/kin_02");
+        RoutingConfig routingConfig = new RoutingConfig();
+        RoutingLookup routingLookup = new RoutingLookup(routingConfig);
+        RFC5424Frame rfc5424Frame = new RFC5424Frame();
+        KIN02RecordFrame kin02RecordFrame = new KIN02RecordFrame(
+                routingLookup,
+                rfc5424Frame,
+                routingConfig,
+                new DeadLetter(),
+                new Inspection()
+        );
+        CFE16RecordFrame cfe16RecordFrame = new CFE16RecordFrame(
+                routingLookup,
+                rfc5424Frame,
+                routingConfig,
+                new DeadLetter(),
+                new Inspection()
+        );
+
+        // records of the kin_02 and cfe_16 fixtures, with the hostname and appName their lookups resolve to
+        assertSplicedAsReserialized(
+                kin02RecordFrame, rfc5424Frame,
+                "<14>1 2020-05-15T13:24:03.603Z aaa-bbb-test 578f2f4c-/bbb/test/bbb-front - - [stream-processor@48577 log-group=\"/example/logGroupName/ThatExists\" log-stream=\"task/bbb-front-service/a4b046968c23af470b6cf9db016d4583\" account=\"1234567890\"] hello",
+                "1234567890.host.example.com", "exampleAppName"
+        );
+        assertSplicedAsReserialized(
+                kin02RecordFrame, rfc5424Frame,
+                "<14>1 2023-08-04T20:16:59.292Z aaa-bbb-test 578f2f4c-/bbb/test/bbb-front - - [stream-processor@48577 log-group=\"/example/logGroupName/ThatExists\" log-stream=\"task/bbb-front-service/a4b046968c23af470b6cf9db016d4583\" account=\"1234567890\"] Example",
+                "1234567890.host.example.com", "exampleAppName"
+        );
+        assertSplicedAsReserialized(
+                cfe16RecordFrame, rfc5424Frame,
+                "<14>1 2023-08-07T08:39:43.196Z CFE-16 capsulated - - [CFE-16-metadata@48577 authentication_token=\"My RoutingKey having token\" channel=\"defaultchannel\" time_source=\"generated\"][CFE-16-origin@48577 X-Forwarded-For=\"127.0.0.3\" X-Forwarded-Host=\"127.0.0.2\" X-Forwarded-Proto=\"http\"] \"Testing\"",
+                "my-routingkey-having-hostname.example.com", "capsulated"
+        );
+        assertSplicedAsReserialized(
+                cfe16RecordFrame, rfc5424Frame,
+                "<14>1 2023-08-07T08:39:43.196Z CFE-16 capsulated - - [CFE-16-metadata@48577 authentication_token=\"My RoutingKey having token\" channel=\"defaultchannel\" time_source=\"generated\"][CFE-16-origin@48577 X-Forwarded-For=\"127.0.0.3\" X-Forwarded-Host=\"127.0.0.2\" X-Forwarded-Proto=\"http\"][event_id@48577 hostname=\"relay.example.com\" uuid=\"029EF30A9CB94D32BE40D3DCD01765AA\" unixtime=\"1691408383\" id_source=\"relay\"][event_format@48577 original_format=\"rfc5424\"][event_node_relay@48577 hostname=\"relay.example.com\" source=\"localhost\" source_module=\"imptcp\"][event_version@48577 major=\"2\" minor=\"2\" hostname=\"relay.example.com\" version_source=\"relay\"] \"Testing\"",
+                "my-routingkey-having-hostname.example.com", "capsulated"
+        );
+    }
+
+    private static void assertSplicedAsReserialized(
+            Routeable routeable,
+            RFC5424Frame rfc5424Frame,
+            String message,
+            String hostname,
+            String appName
+    ) {
+        byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+        rfc5424Frame.load(new ByteArrayInputStream(payload));
+        Assertions.assertTrue(rfc5424Frame.next());
+        RoutingData routingData = routeable.route(payload);
+        Assertions.assertEquals(Collections.singleton("spool"), routingData.targets);
+        Assertions
+                .assertEquals(new String(reserialize(rfc5424Frame, hostname, appName), StandardCharsets.UTF_8), new String(routingData.payload, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testSplice() {
+        String message = "<14>1 2023-08-23T10:21:00+03:00 old-hostname old-appname - - [first@48577 key=\"value\"] msg\n";
+        RewriteDecision rewriteDecision = new RewriteDecision(
+                new TargetIds(Collections.singleton("spool")).of(Collections.singleton("spool")),
+                "new-hostname",
+                "new-appname"
+        );
+        String response = new String(
+                ReplacementUtilityClass.splice(message.getBytes(StandardCharsets.UTF_8), rewriteDecision.header),
+                StandardCharsets.UTF_8
+        );
+        Assertions
+                .assertEquals(
+                        "<14>1 2023-08-23T10:21:00+03:00 new-hostname new-appname - - [first@48577 key=\"value\"] msg\n",
                         response, "Response did not replace values as expected"
                 );
     }
+
+    @Test
+    public void testSpliceEmptyAppName() {
+        String message = "<14>1 2023-08-23T10:21:00+03:00 old-hostname old-appname - - - msg";
+        RewriteDecision rewriteDecision = new RewriteDecision(
+                new TargetIds(Collections.singleton("spool")).of(Collections.singleton("spool")),
+                "new-hostname",
+                ""
+        );
+        String response = new String(
+                ReplacementUtilityClass.splice(message.getBytes(StandardCharsets.UTF_8), rewriteDecision.header),
+                StandardCharsets.UTF_8
+        );
+        Assertions.assertEquals("<14>1 2023-08-23T10:21:00+03:00 new-hostname - - - - msg", response);
+    }
+
+    @Test
+    public void testSpliceNotSyslog() {
+        Assertions
+                .assertThrows(
+                        IllegalArgumentException.class,
+                        () -> ReplacementUtilityClass.splice("<14>1 truncated".getBytes(StandardCharsets.UTF_8), "host app".getBytes(StandardCharsets.UTF_8))
+                );
+    }
 }
@@ -0,0 +1,134 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RingBufferTest {
+
+    @Test
+    public void testOrderAndCapacity() {
+        RingBuffer<AtomicLong> ringBuffer = new RingBuffer<>(4, AtomicLong::new);
+        for (long i = 0; i < 4; i++) {
+            final long value = i;
+            Assertions.assertTrue(ringBuffer.publish(event -> event.set(value)));
+        }
+        Assertions.assertFalse(ringBuffer.publish(event -> event.set(4)), "full ring refuses");
+        Assertions.assertEquals(4, ringBuffer.size());
+
+        List<Long> consumed = new ArrayList<>();
+        while (ringBuffer.consume(event -> consumed.add(event.get()))) {
+            // drain
+        }
+        Assertions.assertEquals(4, consumed.size());
+        for (int i = 0; i < 4; i++) {
+            Assertions.assertEquals(i, consumed.get(i));
+        }
+        Assertions.assertEquals(0, ringBuffer.size());
+        Assertions.assertTrue(ringBuffer.publish(event -> event.set(4)), "slots are reused");
+    }
+
+    @Test
+    public void testPowerOfTwo() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new RingBuffer<>(3, AtomicLong::new));
+    }
+
+    @Test
+    public void testConcurrentPublishers() throws Exception {
+        RingBuffer<long[]> ringBuffer = new RingBuffer<>(64, () -> new long[2]);
+        int publishers = 4;
+        int perPublisher = 100000;
+        CountDownLatch started = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < publishers; p++) {
+            final int publisher = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    started.await();
+                }
+                catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                for (int i = 0; i < perPublisher; i++) {
+                    final long value = i;
+                    while (!ringBuffer.publish(event -> {
+                        event[0] = publisher;
+                        event[1] = value;
+                    })) {
+                        Thread.yield();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        started.countDown();
+
+        // each publisher's events arrive in the order published
+        long[] next = new long[publishers];
+        int consumed = 0;
+        while (consumed < publishers * perPublisher) {
+            if (ringBuffer.consume(event -> {
+                Assertions.assertEquals(next[(int) event[0]], event[1]);
+                next[(int) event[0]]++;
+            })) {
+                consumed++;
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (long count : next) {
+            Assertions.assertEquals(perPublisher, count);
+        }
+    }
+}
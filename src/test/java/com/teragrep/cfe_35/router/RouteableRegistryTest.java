@@ -0,0 +1,204 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import com.codahale.metrics.MetricRegistry;
+import com.teragrep.rlo_06.RFC5424Frame;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+public class RouteableRegistryTest {
+
+    private MetricRegistry metricRegistry;
+    private RFC5424Frame rfc5424Frame;
+    private RouteableRegistry routeableRegistry;
+
+    private RecordHandler handler(String name, String sdElementId, String ... sdParamKeys) {
+        return new RecordHandler(
+                name,
+                sdElementId,
+                sdParamKeys,
+                data -> new RoutingData(data, Collections.singleton(name)),
+                metricRegistry
+        );
+    }
+
+    @BeforeEach
+    public void setup() {
+        metricRegistry = new MetricRegistry();
+        rfc5424Frame = new RFC5424Frame();
+        routeableRegistry = new RouteableRegistry(rfc5424Frame, handler("cfe07", null));
+        routeableRegistry.register(handler("kin02", "stream-processor@48577", "account", "log-group"));
+        routeableRegistry.register(handler("cfe16", "CFE-16-metadata@48577", "authentication_token"));
+    }
+
+    private String dispatch(String record) {
+        rfc5424Frame.load(new ByteArrayInputStream(record.getBytes(StandardCharsets.UTF_8)));
+        Assertions.assertTrue(rfc5424Frame.next());
+        return routeableRegistry.dispatch().name;
+    }
+
+    @Test
+    public void testKin02() {
+        Assertions
+                .assertEquals(
+                        "kin02",
+                        dispatch(
+                                "<14>1 2020-05-15T13:24:03.603Z aaa-bbb-test 578f2f4c-/bbb/test/bbb-front - - [stream-processor@48577 log-group=\"/example/logGroupName/ThatExists\" log-stream=\"task/bbb-front-service/a4b046968c23af470b6cf9db016d4583\" account=\"1234567890\"] hello"
+                        )
+                );
+    }
+
+    @Test
+    public void testKin02WithoutLogGroup() {
+        Assertions
+                .assertEquals(
+                        "cfe07",
+                        dispatch(
+                                "<14>1 2020-05-15T13:24:03.603Z aaa-bbb-test 578f2f4c-/bbb/test/bbb-front - - [stream-processor@48577 account=\"1234567890\"] hello"
+                        )
+                );
+        // params found for the previous record are not carried over
+        Assertions
+                .assertEquals(
+                        "cfe07",
+                        dispatch(
+                                "<14>1 2020-05-15T13:24:03.603Z aaa-bbb-test 578f2f4c-/bbb/test/bbb-front - - [stream-processor@48577 log-group=\"group\"] hello"
+                        )
+                );
+    }
+
+    @Test
+    public void testCfe16() {
+        Assertions
+                .assertEquals(
+                        "cfe16",
+                        dispatch(
+                                "<14>1 2020-05-15T13:24:03.603Z sc-99-99-14-247 capsulated - - [CFE-16-metadata@48577 authentication_token=\"My RoutingKey having spaces\" channel=\"CHANNEL\" time_source=\"generated\"] hello"
+                        )
+                );
+    }
+
+    @Test
+    public void testRegistrationOrder() {
+        Assertions
+                .assertEquals(
+                        "kin02",
+                        dispatch(
+                                "<14>1 2020-05-15T13:24:03.603Z aaa-bbb-test app - - [CFE-16-metadata@48577 authentication_token=\"token\"][stream-processor@48577 log-group=\"group\" account=\"1234567890\"] hello"
+                        )
+                );
+    }
+
+    @Test
+    public void testCfe07() {
+        Assertions
+                .assertEquals(
+                        "cfe07",
+                        dispatch(
+                                "<14>1 2020-05-15T13:24:03.603Z aaa-bbb-test app - - [origin@48577 hostname=\"x\"] hello"
+                        )
+                );
+        Assertions.assertEquals("cfe07", dispatch("<14>1 2020-05-15T13:24:03.603Z aaa-bbb-test app - - - hello"));
+    }
+
+    @Test
+    public void testManyFormats() {
+        for (int i = 0; i < 64; i++) {
+            routeableRegistry.register(handler("format" + i, "format-" + i + "@48577", "key"));
+        }
+        Assertions
+                .assertEquals(
+                        "format63",
+                        dispatch(
+                                "<14>1 2020-05-15T13:24:03.603Z aaa-bbb-test app - - [origin@48577 hostname=\"x\"][format-63@48577 key=\"value\"] hello"
+                        )
+                );
+        Assertions
+                .assertEquals(
+                        "format7",
+                        dispatch(
+                                "<14>1 2020-05-15T13:24:03.603Z aaa-bbb-test app - - [format-40@48577 other=\"value\"][format-7@48577 key=\"value\"] hello"
+                        )
+                );
+        Assertions
+                .assertEquals(
+                        "kin02",
+                        dispatch(
+                                "<14>1 2020-05-15T13:24:03.603Z aaa-bbb-test app - - [format-1@48577 key=\"value\"][stream-processor@48577 log-group=\"group\" account=\"1234567890\"] hello"
+                        )
+                );
+    }
+
+    @Test
+    public void testDuplicateSdElementId() {
+        Assertions
+                .assertThrows(
+                        IllegalArgumentException.class,
+                        () -> routeableRegistry.register(handler("other", "CFE-16-metadata@48577", "channel"))
+                );
+    }
+
+    @Test
+    public void testMetrics() {
+        byte[] record = "<14>1 2020-05-15T13:24:03.603Z aaa-bbb-test app - - - hello".getBytes(StandardCharsets.UTF_8);
+        rfc5424Frame.load(new ByteArrayInputStream(record));
+        Assertions.assertTrue(rfc5424Frame.next());
+        RoutingData routingData = routeableRegistry.dispatch().route(record);
+        Assertions.assertEquals(Collections.singleton("cfe07"), routingData.targets);
+        Assertions
+                .assertEquals(1, metricRegistry.counter(MetricRegistry.name(RecordHandler.class, "<[cfe07]>", "records")).getCount());
+        Assertions
+                .assertEquals(
+                        1, metricRegistry.timer(MetricRegistry.name(RecordHandler.class, "<[cfe07]>", "routeLatency")).getCount()
+                );
+    }
+}
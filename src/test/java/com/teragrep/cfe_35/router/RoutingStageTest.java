@@ -0,0 +1,140 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import com.codahale.metrics.MetricRegistry;
+import com.teragrep.cfe_35.config.RoutingConfig;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class RoutingStageTest {
+
+    @Test
+    public void testConnectionOrderKept() throws Exception {
+        System.setProperty("routingTargetsConfig", "src/test/resources/targetsAsyncRoutingTest.json");
+        System.setProperty("cfe07LookupPath", "src/test/resources/cfe_07");
+        System.setProperty("cfe16LookupPath", "src/test/resources/cfe_16");
+        System.setProperty("kin02LookupPath", "src/test/resources/kin_02");
+        RoutingConfig routingConfig = new RoutingConfig();
+        RoutingLookup routingLookup = new RoutingLookup(routingConfig);
+        MetricRegistry metricRegistry = new MetricRegistry();
+        RecordingTargetRouting targetRouting = new RecordingTargetRouting();
+
+        int connections = 4;
+        int recordsPerConnection = 1000;
+        List<Thread> serverThreads = new ArrayList<>();
+        List<CompletableFuture<Void>> routed = Collections.synchronizedList(new ArrayList<>());
+        try (RoutingStage routingStage = new RoutingStage(2, 16, metricRegistry)) {
+            for (int c = 0; c < connections; c++) {
+                final int connection = c;
+                final RoutingStage.Lane lane = routingStage.lane();
+                final MessageParser messageParser = new MessageParser(
+                        routingLookup,
+                        targetRouting,
+                        metricRegistry,
+                        routingConfig,
+                        lane
+                );
+                // emulates a server thread handing over the records of its connection
+                Thread serverThread = new Thread(() -> {
+                    for (int i = 0; i < recordsPerConnection; i++) {
+                        byte[] payload = ("<14>1 2023-08-04T20:16:59.292Z host-" + connection + " app - - - " + i)
+                                .getBytes(StandardCharsets.UTF_8);
+                        routed.add(lane.submit(messageParser, payload));
+                    }
+                });
+                serverThread.start();
+                serverThreads.add(serverThread);
+            }
+            for (Thread serverThread : serverThreads) {
+                serverThread.join();
+            }
+            CompletableFuture.allOf(routed.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+        }
+
+        int[] next = new int[connections];
+        for (String record : targetRouting.payloads) {
+            String[] fields = record.split(" ");
+            int connection = Integer.parseInt(fields[2].substring("host-".length()));
+            Assertions.assertEquals(next[connection], Integer.parseInt(fields[6]));
+            next[connection]++;
+        }
+        for (int count : next) {
+            Assertions.assertEquals(recordsPerConnection, count);
+        }
+        // drained records are routed in batches
+        Assertions
+                .assertEquals(
+                        connections * recordsPerConnection,
+                        metricRegistry.counter(MetricRegistry.name(MessageParser.class, "records")).getCount()
+                );
+        Assertions
+                .assertTrue(metricRegistry.histogram(MetricRegistry.name(MessageParser.class, "batchRecords")).getCount() > 0);
+    }
+
+    private static final class RecordingTargetRouting implements TargetRouting {
+
+        private final List<String> payloads = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public CompletableFuture<Void> route(RoutingData routingData) {
+            payloads.add(new String(routingData.payload, StandardCharsets.UTF_8));
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void close() {
+            // nothing to drain
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+public class SpillStoreTest {
+
+    // segment header and three records of "record-N"
+    private static final int SEGMENT_SIZE = 8 + 3 * (8 + 8);
+
+    private static byte[] record(int i) {
+        return ("record-" + i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long segmentFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void testRotation(@TempDir Path tempDir) throws IOException {
+        try (SpillStore spillStore = new SpillStore(tempDir, SEGMENT_SIZE, 10 * SEGMENT_SIZE, FsyncPolicy.ALWAYS, 0)) {
+            for (int i = 0; i < 7; i++) {
+                spillStore.write(record(i));
+            }
+            Assertions.assertEquals(3, segmentFiles(tempDir));
+            Assertions.assertEquals(3 * SEGMENT_SIZE, spillStore.diskBytes());
+            Assertions.assertEquals(7 * (8 + 8), spillStore.bytes());
+
+            for (int i = 0; i < 7; i++) {
+                SpillStore.SpilledRecord spilledRecord = spillStore.read();
+                Assertions.assertArrayEquals(record(i), spilledRecord.record);
+                spillStore.commit(spilledRecord);
+            }
+            Assertions.assertTrue(spillStore.isEmpty());
+            Assertions.assertThrows(IOException.class, spillStore::read);
+            // committed segments are deleted, the one written to is kept
+            Assertions.assertEquals(1, segmentFiles(tempDir));
+        }
+    }
+
+    @Test
+    public void testRestartFromCommitted(@TempDir Path tempDir) throws IOException {
+        try (SpillStore spillStore = new SpillStore(tempDir, SEGMENT_SIZE, 10 * SEGMENT_SIZE, FsyncPolicy.NEVER, 0)) {
+            for (int i = 0; i < 5; i++) {
+                spillStore.write(record(i));
+            }
+            SpillStore.SpilledRecord first = spillStore.read();
+            SpillStore.SpilledRecord second = spillStore.read();
+            SpillStore.SpilledRecord third = spillStore.read();
+            // acknowledged out of order, committed position stops at the gap
+            spillStore.commit(first);
+            spillStore.commit(third);
+            Assertions.assertNotNull(second);
+        }
+
+        try (SpillStore spillStore = new SpillStore(tempDir, SEGMENT_SIZE, 10 * SEGMENT_SIZE, FsyncPolicy.NEVER, 0)) {
+            for (int i = 1; i < 5; i++) {
+                Assertions.assertArrayEquals(record(i), spillStore.read().record);
+            }
+            Assertions.assertTrue(spillStore.isEmpty());
+        }
+    }
+
+    @Test
+    public void testRestartWithOtherSegmentSize(@TempDir Path tempDir) throws IOException {
+        try (SpillStore spillStore = new SpillStore(tempDir, SEGMENT_SIZE, 10 * SEGMENT_SIZE, FsyncPolicy.NEVER, 0)) {
+            for (int i = 0; i < 5; i++) {
+                spillStore.write(record(i));
+            }
+        }
+
+        // recovered segments keep the size of their file
+        try (
+                SpillStore spillStore = new SpillStore(
+                        tempDir,
+                        2 * SEGMENT_SIZE,
+                        10 * SEGMENT_SIZE,
+                        FsyncPolicy.NEVER,
+                        0
+                )
+        ) {
+            Assertions.assertEquals(2 * SEGMENT_SIZE, spillStore.diskBytes());
+            spillStore.write(record(5));
+            spillStore.write(record(6));
+            for (int i = 0; i < 7; i++) {
+                SpillStore.SpilledRecord spilledRecord = spillStore.read();
+                Assertions.assertArrayEquals(record(i), spilledRecord.record);
+                spillStore.commit(spilledRecord);
+            }
+            Assertions.assertTrue(spillStore.isEmpty());
+        }
+
+        try (
+                SpillStore spillStore = new SpillStore(
+                        tempDir,
+                        SEGMENT_SIZE / 2,
+                        10 * SEGMENT_SIZE,
+                        FsyncPolicy.NEVER,
+                        0
+                )
+        ) {
+            Assertions.assertTrue(spillStore.isEmpty());
+        }
+    }
+
+    @Test
+    public void testTornWrite(@TempDir Path tempDir) throws IOException {
+        try (SpillStore spillStore = new SpillStore(tempDir, SEGMENT_SIZE, 10 * SEGMENT_SIZE, FsyncPolicy.NEVER, 0)) {
+            spillStore.write(record(0));
+            spillStore.write(record(1));
+        }
+        // second record loses its last byte
+        try (RandomAccessFile file = new RandomAccessFile(segment(tempDir).toFile(), "rw")) {
+            file.seek(8 + 16 + 8 + 7);
+            file.write(0);
+        }
+
+        try (SpillStore spillStore = new SpillStore(tempDir, SEGMENT_SIZE, 10 * SEGMENT_SIZE, FsyncPolicy.NEVER, 0)) {
+            Assertions.assertArrayEquals(record(0), spillStore.read().record);
+            Assertions.assertTrue(spillStore.isEmpty());
+
+            // written after the intact records
+            spillStore.write(record(2));
+            Assertions.assertArrayEquals(record(2), spillStore.read().record);
+        }
+    }
+
+    @Test
+    public void testCorruptedRecordSkipsSegment(@TempDir Path tempDir) throws IOException {
+        try (SpillStore spillStore = new SpillStore(tempDir, SEGMENT_SIZE, 10 * SEGMENT_SIZE, FsyncPolicy.NEVER, 0)) {
+            for (int i = 0; i < 4; i++) {
+                spillStore.write(record(i));
+            }
+            // payload of the first record changes after it was written
+            try (RandomAccessFile file = new RandomAccessFile(segment(tempDir).toFile(), "rw")) {
+                file.seek(8 + 8);
+                file.write('X');
+            }
+
+            // remainder of the first segment is discarded, the second segment is intact
+            Assertions.assertArrayEquals(record(3), spillStore.read().record);
+            Assertions.assertTrue(spillStore.isEmpty());
+        }
+    }
+
+    @Test
+    public void testCapacity(@TempDir Path tempDir) throws IOException {
+        try (SpillStore spillStore = new SpillStore(tempDir, SEGMENT_SIZE, 2 * SEGMENT_SIZE, FsyncPolicy.NEVER, 0)) {
+            for (int i = 0; i < 6; i++) {
+                Assertions.assertTrue(spillStore.hasCapacity(record(i).length));
+                spillStore.write(record(i));
+            }
+            Assertions.assertFalse(spillStore.hasCapacity(record(6).length));
+            Assertions.assertThrows(IOException.class, () -> spillStore.write(record(6)));
+
+            // reading does not free space, committing does
+            SpillStore.SpilledRecord[] read = new SpillStore.SpilledRecord[3];
+            for (int i = 0; i < 3; i++) {
+                read[i] = spillStore.read();
+            }
+            Assertions.assertFalse(spillStore.hasCapacity(record(6).length));
+            for (SpillStore.SpilledRecord spilledRecord : read) {
+                spillStore.commit(spilledRecord);
+            }
+            Assertions.assertTrue(spillStore.hasCapacity(record(6).length));
+            spillStore.write(record(6));
+        }
+    }
+
+    private static Path segment(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().findFirst().orElseThrow(() -> new IOException("no segments"));
+        }
+    }
+}
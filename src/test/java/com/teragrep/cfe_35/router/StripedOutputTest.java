@@ -0,0 +1,85 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+public class StripedOutputTest {
+
+    private static byte[] record(String hostname, String msg) {
+        return ("<14>1 2024-01-01T00:00:00.000Z " + hostname + " app - - - " + msg).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testSameHostSameStripe() {
+        int stripe = StripedOutput.stripe(record("host-1.example.com", "first"), 8);
+        for (int i = 0; i < 100; i++) {
+            Assertions.assertEquals(stripe, StripedOutput.stripe(record("host-1.example.com", "msg " + i), 8));
+        }
+    }
+
+    @Test
+    public void testHostsSpreadOverStripes() {
+        Set<Integer> stripes = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            int stripe = StripedOutput.stripe(record("host-" + i + ".example.com", "msg"), 8);
+            Assertions.assertTrue(stripe >= 0 && stripe < 8);
+            stripes.add(stripe);
+        }
+        Assertions.assertEquals(8, stripes.size());
+    }
+
+    @Test
+    public void testWithoutHostnameFirstStripe() {
+        Assertions.assertEquals(0, StripedOutput.stripe("<14>1 truncated".getBytes(StandardCharsets.UTF_8), 8));
+        Assertions.assertEquals(0, StripedOutput.stripe(new byte[0], 8));
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class TargetSetTest {
+
+    @Test
+    public void testIds() {
+        TargetIds targetIds = new TargetIds(Arrays.asList("spool", "hdfs"));
+        Assertions.assertEquals(0, targetIds.id("spool"));
+        Assertions.assertEquals(1, targetIds.id("hdfs"));
+        Assertions.assertEquals(2, targetIds.id("dead-letter"));
+        Assertions.assertEquals(3, targetIds.id("inspection"));
+        Assertions.assertEquals(-1, targetIds.id("siem0"));
+        Assertions.assertEquals(4, targetIds.size());
+
+        // names decided on but not configured get the next id
+        Assertions.assertEquals(4, targetIds.intern("siem0"));
+        Assertions.assertEquals(4, targetIds.intern("siem0"));
+        Assertions.assertEquals("siem0", targetIds.name(4));
+    }
+
+    @Test
+    public void testSet() {
+        TargetIds targetIds = new TargetIds(Arrays.asList("spool", "hdfs"));
+        Set<String> targets = new HashSet<>(Arrays.asList("hdfs", "inspection"));
+        TargetSet targetSet = targetIds.of(targets);
+
+        Assertions.assertEquals(targets, targetSet);
+        Assertions.assertEquals(targetSet, targets);
+        Assertions.assertEquals(2, targetSet.size());
+        Assertions.assertTrue(targetSet.contains("hdfs"));
+        Assertions.assertFalse(targetSet.contains("spool"));
+        Assertions.assertFalse(targetSet.contains("siem0"));
+
+        List<Integer> ids = new ArrayList<>();
+        for (int id = targetSet.nextId(0); id >= 0; id = targetSet.nextId(id + 1)) {
+            ids.add(id);
+        }
+        Assertions.assertEquals(Arrays.asList(1, 3), ids);
+
+        Assertions.assertSame(targetSet, targetIds.of(targetSet));
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> targetSet.add("spool"));
+    }
+
+    @Test
+    public void testEmptySet() {
+        TargetIds targetIds = new TargetIds(Collections.singleton("spool"));
+        TargetSet targetSet = targetIds.of(Collections.emptySet());
+        Assertions.assertTrue(targetSet.isEmpty());
+        Assertions.assertEquals(-1, targetSet.nextId(0));
+        Assertions.assertFalse(targetSet.iterator().hasNext());
+    }
+
+    @Test
+    public void testManyTargets() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 130; i++) {
+            names.add("target-" + i);
+        }
+        TargetIds targetIds = new TargetIds(names);
+        Set<String> targets = new HashSet<>(Arrays.asList("target-0", "target-63", "target-64", "target-129"));
+        TargetSet targetSet = targetIds.of(targets);
+
+        List<Integer> ids = new ArrayList<>();
+        for (int id = targetSet.nextId(0); id >= 0; id = targetSet.nextId(id + 1)) {
+            ids.add(id);
+        }
+        Assertions.assertEquals(Arrays.asList(0, 63, 64, 129), ids);
+        Assertions.assertEquals(targets, new HashSet<>(targetSet));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router.relp;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class RelpEventLoopTest {
+
+    @Test
+    public void testExecuteOnLoop() throws Exception {
+        try (RelpEventLoop relpEventLoop = new RelpEventLoop("test-execute")) {
+            CompletableFuture<Boolean> inEventLoop = new CompletableFuture<>();
+            relpEventLoop.execute(() -> inEventLoop.complete(relpEventLoop.inEventLoop()));
+            Assertions.assertTrue(inEventLoop.get(5, TimeUnit.SECONDS));
+            Assertions.assertFalse(relpEventLoop.inEventLoop());
+        }
+    }
+
+    @Test
+    public void testCompletionsOffLoop() throws Exception {
+        RelpEventLoop relpEventLoop = new RelpEventLoop("test-completion");
+        List<String> ran = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<Boolean> inEventLoop = new CompletableFuture<>();
+        relpEventLoop.execute(() -> {
+            relpEventLoop.executeCompletion(() -> ran.add("first"));
+            relpEventLoop.executeCompletion(() -> inEventLoop.complete(relpEventLoop.inEventLoop()));
+        });
+        Assertions.assertFalse(inEventLoop.get(5, TimeUnit.SECONDS));
+        relpEventLoop.close();
+
+        // run by the caller once closed
+        relpEventLoop.executeCompletion(() -> ran.add("closed"));
+        Assertions.assertEquals(2, ran.size());
+        Assertions.assertEquals("first", ran.get(0));
+        Assertions.assertEquals("closed", ran.get(1));
+    }
+
+    @Test
+    public void testScheduledInDeadlineOrder() throws Exception {
+        try (RelpEventLoop relpEventLoop = new RelpEventLoop("test-schedule")) {
+            List<String> ran = Collections.synchronizedList(new ArrayList<>());
+            CompletableFuture<Long> done = new CompletableFuture<>();
+            long started = System.nanoTime();
+            relpEventLoop.execute(() -> {
+                relpEventLoop.schedule(() -> {
+                    ran.add("late");
+                    done.complete(System.nanoTime() - started);
+                }, 100);
+                relpEventLoop.schedule(() -> ran.add("early"), 50);
+                relpEventLoop.schedule(() -> ran.add("cancelled"), 10).cancel();
+            });
+
+            long elapsed = done.get(5, TimeUnit.SECONDS);
+            Assertions.assertTrue(TimeUnit.NANOSECONDS.toMillis(elapsed) >= 100);
+            Assertions.assertEquals(2, ran.size());
+            Assertions.assertEquals("early", ran.get(0));
+            Assertions.assertEquals("late", ran.get(1));
+        }
+    }
+
+    @Test
+    public void testFailingTaskKeepsLoopRunning() throws Exception {
+        try (RelpEventLoop relpEventLoop = new RelpEventLoop("test-failing")) {
+            relpEventLoop.execute(() -> {
+                throw new IllegalStateException("failing on purpose");
+            });
+            CompletableFuture<Void> after = new CompletableFuture<>();
+            relpEventLoop.execute(() -> after.complete(null));
+            after.get(5, TimeUnit.SECONDS);
+        }
+    }
+}
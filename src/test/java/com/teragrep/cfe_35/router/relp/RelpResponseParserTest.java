@@ -0,0 +1,164 @@
+/*
+ * Java Record Router CFE-35
+ * Copyright (C) 2021-2024 Suomen Kanuuna Oy
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Additional permission under GNU Affero General Public License version 3
+ * section 7
+ *
+ * If you modify this Program, or any covered work, by linking or combining it
+ * with other code, such other code is not for that reason alone subject to any
+ * of the requirements of the GNU Affero GPL version 3 as long as this Program
+ * is the same Program as licensed from Suomen Kanuuna Oy without any additional
+ * modifications.
+ *
+ * Supplemented terms under GNU Affero General Public License version 3
+ * section 7
+ *
+ * Origin of the software must be attributed to Suomen Kanuuna Oy. Any modified
+ * versions must be marked as "Modified version of" The Program.
+ *
+ * Names of the licensors and authors may not be used for publicity purposes.
+ *
+ * No rights are granted for use of trade names, trademarks, or service marks
+ * which are in The Program if any.
+ *
+ * Licensee must indemnify licensors and authors for any liability that these
+ * contractual assumptions impose on licensors and authors.
+ *
+ * To the extent this program is licensed as part of the Commercial versions of
+ * Teragrep, the applicable Commercial License may apply to this file if you as
+ * a licensee so wish it.
+ */
+package com.teragrep.cfe_35.router.relp;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class RelpResponseParserTest {
+
+    @Test
+    public void testResponses() {
+        RelpResponseParser relpResponseParser = new RelpResponseParser();
+        ByteBuffer buffer = ByteBuffer
+                .wrap("1 rsp 6 200 OK\n2 rsp 13 500 not so ok\n3 rsp 0\n".getBytes(StandardCharsets.US_ASCII));
+
+        List<RelpResponse> responses = relpResponseParser.parse(buffer);
+        Assertions.assertEquals(3, responses.size());
+        Assertions.assertEquals(1, responses.get(0).txnr());
+        Assertions.assertTrue(responses.get(0).isOk());
+        Assertions.assertEquals(2, responses.get(1).txnr());
+        Assertions.assertFalse(responses.get(1).isOk());
+        Assertions.assertEquals(3, responses.get(2).txnr());
+        Assertions.assertFalse(responses.get(2).isOk());
+    }
+
+    @Test
+    public void testSplitResponses() {
+        RelpResponseParser relpResponseParser = new RelpResponseParser();
+        byte[] bytes = "999999999 rsp 6 200 OK\n0 serverclose 0\n".getBytes(StandardCharsets.US_ASCII);
+
+        // one byte at a time
+        List<RelpResponse> responses = new ArrayList<>();
+        for (byte b : bytes) {
+            responses.addAll(relpResponseParser.parse(ByteBuffer.wrap(new byte[] {
+                    b
+            })));
+        }
+
+        Assertions.assertEquals(2, responses.size());
+        Assertions.assertEquals(999999999, responses.get(0).txnr());
+        Assertions.assertTrue(responses.get(0).isOk());
+        Assertions.assertTrue(responses.get(1).isServerClose());
+    }
+
+    @Test
+    public void testInvalidTrailer() {
+        RelpResponseParser relpResponseParser = new RelpResponseParser();
+        ByteBuffer buffer = ByteBuffer.wrap("1 rsp 6 200 OKX".getBytes(StandardCharsets.US_ASCII));
+
+        Assertions.assertThrows(IllegalStateException.class, () -> relpResponseParser.parse(buffer));
+    }
+
+    @Test
+    public void testInvalidTxnr() {
+        RelpResponseParser relpResponseParser = new RelpResponseParser();
+        ByteBuffer buffer = ByteBuffer.wrap("x rsp 6 200 OK\n".getBytes(StandardCharsets.US_ASCII));
+
+        Assertions.assertThrows(IllegalStateException.class, () -> relpResponseParser.parse(buffer));
+    }
+
+    @Test
+    public void testDataLengthExceeded() {
+        RelpResponseParser relpResponseParser = new RelpResponseParser(16);
+        Assertions
+                .assertEquals(
+                        1, relpResponseParser
+                                .parse(ByteBuffer.wrap("1 rsp 16 200 OK 012345678\n".getBytes(StandardCharsets.US_ASCII))).size()
+                );
+
+        // fails at the digit exceeding the limit
+        ByteBuffer buffer = ByteBuffer.wrap("2 rsp 999999999".getBytes(StandardCharsets.US_ASCII));
+        Assertions.assertThrows(IllegalStateException.class, () -> relpResponseParser.parse(buffer));
+        Assertions.assertEquals(7, buffer.remaining());
+    }
+
+    private static String frame(RelpRequest relpRequest) {
+        StringBuilder frame = new StringBuilder();
+        for (ByteBuffer buffer : relpRequest.toByteBuffers()) {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            frame.append(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return frame.toString();
+    }
+
+    @Test
+    public void testRequest() {
+        RelpRequest relpRequest = new RelpRequest(
+                5,
+                "syslog",
+                new RelpPayload("hello".getBytes(StandardCharsets.UTF_8))
+        );
+
+        Assertions.assertEquals("5 syslog 5 hello\n", frame(relpRequest));
+    }
+
+    @Test
+    public void testRequestDataNotCopied() {
+        byte[] data = "hello".getBytes(StandardCharsets.UTF_8);
+        RelpPayload relpPayload = new RelpPayload(data);
+        RelpRequest first = new RelpRequest(5, "syslog", relpPayload);
+        RelpRequest second = new RelpRequest(9, "syslog", relpPayload);
+
+        Assertions.assertSame(data, first.toByteBuffers()[2].array());
+        // encoded length is shared between the requests of the payload
+        Assertions.assertSame(first.toByteBuffers()[1].array(), second.toByteBuffers()[1].array());
+        Assertions.assertEquals("9 syslog 5 hello\n", frame(second));
+    }
+
+    @Test
+    public void testEmptyRequest() {
+        RelpRequest relpRequest = new RelpRequest(7, "close", new RelpPayload(new byte[0]));
+
+        Assertions.assertEquals("7 close 0\n", frame(relpRequest));
+    }
+}